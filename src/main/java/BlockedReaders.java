@@ -0,0 +1,179 @@
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Clients blocked in XREAD or XREADGROUP BLOCK, registered under every stream they read along with
+ * the ID they are waiting to see passed. XADD wakes only the waiters on its stream that its new ID
+ * puts behind, rather than every reader of the stream, and of the consumers of one group only the
+ * longest waiting, since the entry can be delivered to just one of them. Waiters park their (virtual) thread with
+ * {@link LockSupport}, which, unlike a monitor wait, does not pin the carrier. One timer thread
+ * wakes waiters whose BLOCK timeout passes, so an idle reader costs a registry entry and nothing
+ * more.
+ */
+public class BlockedReaders {
+
+    private static final int WAITING = 0;
+    private static final int READY = 1;
+    private static final int TIMED_OUT = 2;
+
+    private static final class Waiter {
+        final Thread thread = Thread.currentThread();
+        final Map<Key, StreamId> after;
+        // Consumer group being read, or null for XREAD.
+        final Key group;
+        // System.nanoTime() deadline, or 0 to wait until woken.
+        final long deadline;
+        final long order;
+        final AtomicInteger state = new AtomicInteger(WAITING);
+
+        Waiter(Map<Key, StreamId> after, Key group, long deadline) {
+            this.after = after;
+            this.group = group;
+            this.deadline = deadline;
+            this.order = sequence.incrementAndGet();
+        }
+
+        boolean wake(int outcome) {
+
+            if (state.compareAndSet(WAITING, outcome)) {
+                LockSupport.unpark(thread);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static final AtomicLong sequence = new AtomicLong();
+    private static final Comparator<Waiter> ARRIVAL = Comparator.comparingLong(w -> w.order);
+    // Waiters per stream, longest waiting first.
+    private static final Map<Key, Set<Waiter>> waiters = new ConcurrentHashMap<>();
+    // Waiters with a timeout, earliest deadline first.
+    private static final ConcurrentSkipListSet<Waiter> deadlines = new ConcurrentSkipListSet<>(
+            Comparator.<Waiter>comparingLong(w -> w.deadline).thenComparingLong(w -> w.order));
+    private static final Thread timer;
+
+    static {
+        timer = new Thread(BlockedReaders::run, "xread-timeouts");
+        timer.setDaemon(true);
+        timer.start();
+    }
+
+    /**
+     * Blocks until some stream in {@code after} has an entry past the ID it maps to, the
+     * {@link System#nanoTime()} {@code deadline} passes (0 for no deadline) or the thread is
+     * interrupted. Returns true only in the first case.
+     */
+    public static boolean await(Map<Key, StreamId> after, long deadline) {
+        return await(after, null, deadline);
+    }
+
+    /**
+     * Like {@link #await(Map, long)} for a consumer of {@code group}, which shares each new entry
+     * with the group's other blocked consumers. May return true with nothing left to read if another
+     * consumer took it first.
+     */
+    public static boolean await(Map<Key, StreamId> after, Key group, long deadline) {
+
+        Waiter waiter = new Waiter(after, group, deadline);
+        for (Key stream : after.keySet()) {
+            waiters.compute(stream, (k, set) -> {
+                Set<Waiter> registered = set != null ? set : new ConcurrentSkipListSet<>(ARRIVAL);
+                registered.add(waiter);
+                return registered;
+            });
+        }
+        if (deadline != 0) {
+            deadlines.add(waiter);
+            if (earliest() == waiter) {
+                LockSupport.unpark(timer);
+            }
+        }
+
+        try {
+            // An XADD that landed before registration did not see this waiter, so check once here.
+            for (Map.Entry<Key, StreamId> entry : after.entrySet()) {
+                StreamId last = StreamStorage.lastId(entry.getKey());
+                if (last != null && last.isGreaterThan(entry.getValue())) {
+                    waiter.wake(READY);
+                }
+            }
+            while (waiter.state.get() == WAITING) {
+                LockSupport.park(BlockedReaders.class);
+                if (Thread.currentThread().isInterrupted()) {
+                    waiter.wake(TIMED_OUT);
+                }
+            }
+            return waiter.state.get() == READY;
+        } finally {
+            for (Key stream : after.keySet()) {
+                waiters.computeIfPresent(stream, (k, set) -> {
+                    set.remove(waiter);
+                    return set.isEmpty() ? null : set;
+                });
+            }
+            if (deadline != 0) {
+                deadlines.remove(waiter);
+            }
+        }
+    }
+
+    /**
+     * Called by XADD once {@code id} is readable on {@code stream}.
+     */
+    public static void signal(Key stream, StreamId id) {
+
+        Set<Waiter> blocked = waiters.get(stream);
+        if (blocked == null) {
+            return;
+        }
+        Set<Key> served = null;
+        for (Waiter waiter : blocked) {
+            if (!id.isGreaterThan(waiter.after.get(stream))) {
+                continue;
+            }
+            if (waiter.group == null) {
+                waiter.wake(READY);
+                continue;
+            }
+            if (served == null) {
+                served = new HashSet<>();
+            }
+            // Falls through to the next consumer if this one was already woken or timed out.
+            if (!served.contains(waiter.group) && waiter.wake(READY)) {
+                served.add(waiter.group);
+            }
+        }
+    }
+
+    // first() would throw if the timer emptied the set since it was checked.
+    private static Waiter earliest() {
+
+        Iterator<Waiter> it = deadlines.iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    private static void run() {
+
+        while (true) {
+            Waiter first = earliest();
+            if (first == null) {
+                LockSupport.park();
+                continue;
+            }
+            long wait = first.deadline - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            } else if (deadlines.remove(first)) {
+                first.wake(TIMED_OUT);
+            }
+        }
+    }
+}
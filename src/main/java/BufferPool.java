@@ -0,0 +1,36 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared pool of fixed-size output chunks. A connection only holds a chunk while it has unflushed
+ * replies, so tens of thousands of idle connections cost no output memory.
+ */
+public class BufferPool {
+
+    public static final int CHUNK_SIZE = 16 * 1024;
+    private static final int MAX_POOLED_CHUNKS = 4096;
+
+    private static final ConcurrentLinkedQueue<byte[]> chunks = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    public static byte[] acquire() {
+
+        byte[] chunk = chunks.poll();
+        if (chunk == null) {
+            return new byte[CHUNK_SIZE];
+        }
+        pooled.decrementAndGet();
+        return chunk;
+    }
+
+    public static void release(byte[] chunk) {
+
+        if (chunk.length != CHUNK_SIZE || pooled.incrementAndGet() > MAX_POOLED_CHUNKS) {
+            if (chunk.length == CHUNK_SIZE) {
+                pooled.decrementAndGet();
+            }
+            return;
+        }
+        chunks.offer(chunk);
+    }
+}
@@ -0,0 +1,183 @@
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-connection state for the event loop. Only the owning reactor thread reads from the channel;
+ * commands that may block (WAIT, XREAD BLOCK) are handed to a virtual thread while reads for this
+ * connection are paused, so the reactor never parks and pipelined commands keep their order.
+ * In shard mode, runs of single-key commands are handed to the shards the same way.
+ */
+public class ChannelConnection {
+
+    private final Reactor reactor;
+    private final SocketChannel channel;
+    // Set by open(), before the connection is handed to anyone.
+    private ConnectionContext context;
+    private final RequestHandler requestHandler;
+    private final RespParser parser = new RespParser();
+    private SelectionKey key;
+    private boolean suspended;
+    // A command pulled from the parser while collecting a shard batch that could not join it.
+    private byte[][] deferred;
+
+    private ChannelConnection(Config config, Reactor reactor, SocketChannel channel) {
+        this.reactor = reactor;
+        this.channel = channel;
+        this.requestHandler = new RequestHandler(config);
+    }
+
+    /**
+     * A connection for {@code channel} whose context flushes through {@code reactor}.
+     */
+    static ChannelConnection open(Config config, Reactor reactor, SocketChannel channel) throws IOException {
+
+        ChannelConnection connection = new ChannelConnection(config, reactor, channel);
+        connection.context = new ConnectionContext(channel, connection::flush);
+        return connection;
+    }
+
+    void attach(SelectionKey key) {
+        this.key = key;
+    }
+
+    void onReadable() {
+
+        int read;
+        try {
+            read = parser.readFrom(channel);
+        } catch (IOException e) {
+            Log.warning("Error reading from client: {}", e);
+            close();
+            return;
+        }
+
+        if (read == -1) {
+            Log.verbose("Client disconnected");
+            close();
+            return;
+        }
+
+        processInput();
+    }
+
+    void onWritable() {
+        flushPending();
+    }
+
+    private void processInput() {
+
+        try {
+            while (!suspended && !context.isClosed()) {
+                byte[][] args = deferred != null ? deferred : parser.next();
+                deferred = null;
+                if (args == null) {
+                    break;
+                }
+
+                if (CommandDispatcher.isBlocking(args)) {
+                    processBlocking(args);
+                } else if (requestHandler.isShardable(context, args)) {
+                    processOnShards(args);
+                } else {
+                    requestHandler.process(context, args);
+                }
+            }
+        } catch (IOException e) {
+            Log.warning("Error handling client in processInput: {}", e);
+            close();
+            return;
+        }
+
+        flushPending();
+    }
+
+    private void processBlocking(byte[][] args) {
+
+        suspended = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+
+        Thread.startVirtualThread(() -> {
+            try {
+                requestHandler.process(context, args);
+            } catch (IOException e) {
+                Log.warning("Error handling blocking command: {}", e);
+            } finally {
+                reactor.execute(this::resume);
+            }
+        });
+    }
+
+    private void processOnShards(byte[][] first) throws IOException {
+
+        List<byte[][]> batch = new ArrayList<>();
+        batch.add(first);
+        while (batch.size() < RequestHandler.MAX_SHARD_BATCH
+                && (deferred = parser.next()) != null && requestHandler.isShardable(context, deferred)) {
+            batch.add(deferred);
+            deferred = null;
+        }
+
+        suspended = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        requestHandler.processOnShards(context, batch).whenComplete((ignored, error) -> reactor.execute(this::resume));
+    }
+
+    private void resume() {
+
+        suspended = false;
+        if (!key.isValid()) {
+            return;
+        }
+        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        processInput();
+    }
+
+    private void flush() {
+
+        if (reactor.inReactorThread()) {
+            flushPending();
+        } else {
+            reactor.execute(this::flushPending);
+        }
+    }
+
+    /**
+     * Pushes buffered replies to the socket, falling back to OP_WRITE when the kernel send buffer is full.
+     */
+    private void flushPending() {
+
+        if (!key.isValid()) {
+            return;
+        }
+
+        boolean drained;
+        try {
+            drained = context.drainTo(channel);
+        } catch (IOException e) {
+            Log.warning("Error writing to client: {}", e);
+            close();
+            return;
+        }
+
+        if (drained) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        } else {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    void close() {
+
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            context.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
@@ -0,0 +1,31 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Coarse wall clock for TTL checks. A daemon thread refreshes a cached epoch-millis value every
+ * millisecond, so the hot read path (every GET of a key with a TTL) is one volatile load instead of
+ * a clock call. Expiry decisions made against this clock are consistent with each other; they may
+ * lag the real time by about a millisecond.
+ */
+public class Clock {
+
+    private static volatile long millis = System.currentTimeMillis();
+
+    static {
+        Thread ticker = new Thread(Clock::run, "clock");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    public static long millis() {
+        return millis;
+    }
+
+    private static void run() {
+
+        while (true) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            millis = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One entry of the command table. {@code arity} follows Redis: a positive value is the exact argument
+ * count including the command name, a negative value is the minimum. Key positions are 1-based
+ * ({@code firstKey}, {@code lastKey}, {@code step}); {@code lastKey} of -1 means the last argument,
+ * and a {@code firstKey} of 0 means the command has no keys at fixed positions.
+ */
+public record Command(String name, int arity, int flags, int firstKey, int lastKey, int step, Handler handler,
+                      CommandStats stats) {
+
+    public static final int WRITE = 1;
+    public static final int READONLY = 1 << 1;
+    public static final int BLOCKING = 1 << 2;
+    public static final int ADMIN = 1 << 3;
+    // Answered on the raw connection when the client is not inside MULTI (replica handshake).
+    public static final int HANDSHAKE = 1 << 4;
+    // MULTI/EXEC/DISCARD run immediately even while a transaction is open.
+    public static final int TRANSACTION = 1 << 5;
+    // May grow the dataset, so it is refused when over --maxmemory and nothing can be evicted.
+    public static final int DENYOOM = 1 << 6;
+    // A write whose handler replicates its effects itself, because replaying the command on a replica
+    // would not reproduce them (XREADGROUP, XCLAIM).
+    public static final int SELF_PROPAGATING = 1 << 7;
+
+    private static final int[] PUBLIC_FLAGS = {WRITE, READONLY, BLOCKING, ADMIN, DENYOOM};
+    private static final String[] PUBLIC_FLAG_NAMES = {"write", "readonly", "blocking", "admin", "denyoom"};
+
+    public Command(String name, int arity, int flags, int firstKey, int lastKey, int step, Handler handler) {
+        this(name, arity, flags, firstKey, lastKey, step, handler, new CommandStats());
+    }
+
+    @FunctionalInterface
+    public interface Handler {
+        RedisResponse handle(CommandDispatcher dispatcher, byte[][] args, long ack, ConnectionContext ctx);
+    }
+
+    public boolean has(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    /**
+     * Whether the command touches exactly one key at a fixed position and never blocks, which is what
+     * lets it run on that key's shard.
+     */
+    public boolean isSingleKey() {
+        return firstKey > 0 && firstKey == lastKey && !has(BLOCKING);
+    }
+
+    /**
+     * The key arguments of one invocation, per {@code firstKey}/{@code lastKey}/{@code step}.
+     */
+    public List<byte[]> keys(byte[][] args) {
+
+        List<byte[]> keys = new ArrayList<>();
+        if (firstKey <= 0) {
+            return keys;
+        }
+        int last = lastKey < 0 ? args.length + lastKey : lastKey;
+        for (int i = firstKey; i <= last && i < args.length; i += step) {
+            keys.add(args[i]);
+        }
+        return keys;
+    }
+
+    public boolean acceptsArity(int argc) {
+        return arity >= 0 ? argc == arity : argc >= -arity;
+    }
+
+    public List<String> flagNames() {
+
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < PUBLIC_FLAGS.length; i++) {
+            if (has(PUBLIC_FLAGS[i])) {
+                names.add(PUBLIC_FLAG_NAMES[i]);
+            }
+        }
+        return names;
+    }
+}
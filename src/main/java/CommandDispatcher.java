@@ -1,5 +1,8 @@
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class CommandDispatcher {
 
@@ -9,161 +12,495 @@ public class CommandDispatcher {
         this.config = config;
     }
 
-    public RedisResponse dispatch(String[] args, long ack, ConnectionContext ctx) {
+    private static final CommandTable COMMANDS = new CommandTable(List.of(
+            new Command("ping", -1, Command.HANDSHAKE, 0, 0, 0, (d, args, ack, ctx) -> SimpleResponse.PONG),
+            new Command("echo", 2, 0, 0, 0, 0, (d, args, ack, ctx) -> new BinaryResponse(args[1])),
+            new Command("set", -3, Command.WRITE | Command.DENYOOM, 1, 1, 1, (d, args, ack, ctx) -> d.handleSetCommand(args)),
+            new Command("get", 2, Command.READONLY, 1, 1, 1, (d, args, ack, ctx) -> d.handleGetCommand(args)),
+            new Command("mget", -2, Command.READONLY, 1, -1, 1, (d, args, ack, ctx) -> d.handleMGet(args)),
+            new Command("mset", -3, Command.WRITE | Command.DENYOOM, 1, -1, 2, (d, args, ack, ctx) -> d.handleMSet(args, false)),
+            new Command("msetnx", -3, Command.WRITE | Command.DENYOOM, 1, -1, 2, (d, args, ack, ctx) -> d.handleMSet(args, true)),
+            new Command("del", -2, Command.WRITE, 1, -1, 1, (d, args, ack, ctx) -> d.handleDel(args)),
+            new Command("unlink", -2, Command.WRITE, 1, -1, 1, (d, args, ack, ctx) -> d.handleDel(args)),
+            new Command("exists", -2, Command.READONLY, 1, -1, 1, (d, args, ack, ctx) -> d.handleExists(args)),
+            new Command("incr", 2, Command.WRITE | Command.DENYOOM, 1, 1, 1, (d, args, ack, ctx) -> d.handleIncrBy(args, 1)),
+            new Command("decr", 2, Command.WRITE | Command.DENYOOM, 1, 1, 1, (d, args, ack, ctx) -> d.handleIncrBy(args, -1)),
+            new Command("incrby", 3, Command.WRITE | Command.DENYOOM, 1, 1, 1, (d, args, ack, ctx) -> d.handleIncrByArgument(args, false)),
+            new Command("decrby", 3, Command.WRITE | Command.DENYOOM, 1, 1, 1, (d, args, ack, ctx) -> d.handleIncrByArgument(args, true)),
+            new Command("incrbyfloat", 3, Command.WRITE | Command.DENYOOM, 1, 1, 1, (d, args, ack, ctx) -> d.handleIncrByFloat(args)),
+            new Command("type", 2, Command.READONLY, 1, 1, 1, (d, args, ack, ctx) -> d.handleType(args)),
+            new Command("memory", -2, Command.READONLY, 0, 0, 0, (d, args, ack, ctx) -> d.handleMemoryCommand(args)),
+            new Command("scan", -2, Command.READONLY, 0, 0, 0, (d, args, ack, ctx) -> d.handleScan(args)),
+            new Command("keys", 2, Command.READONLY, 0, 0, 0, (d, args, ack, ctx) -> d.handleKeyCommand(args)),
+            new Command("xadd", -5, Command.WRITE | Command.DENYOOM, 1, 1, 1, (d, args, ack, ctx) -> d.handleXAdd(args)),
+            new Command("xtrim", -4, Command.WRITE, 1, 1, 1, (d, args, ack, ctx) -> d.handleXTrim(args)),
+            new Command("xrange", -4, Command.READONLY, 1, 1, 1, (d, args, ack, ctx) -> d.handleXRange(args)),
+            // XREAD keys follow STREAMS, so they have no fixed position.
+            new Command("xread", -4, Command.READONLY | Command.BLOCKING, 0, 0, 0, (d, args, ack, ctx) -> d.handleXRead(args, ctx)),
+            new Command("xgroup", -4, Command.WRITE | Command.DENYOOM, 2, 2, 1, (d, args, ack, ctx) -> d.handleXGroup(args)),
+            // Locks and replicates each stream it reads itself, since it may block in between.
+            new Command("xreadgroup", -7, Command.WRITE | Command.BLOCKING | Command.SELF_PROPAGATING, 0, 0, 0,
+                    (d, args, ack, ctx) -> d.handleXReadGroup(args, ctx)),
+            new Command("xack", -4, Command.WRITE, 1, 1, 1, (d, args, ack, ctx) -> d.handleXAck(args)),
+            new Command("xpending", -3, Command.READONLY, 1, 1, 1, (d, args, ack, ctx) -> d.handleXPending(args)),
+            new Command("xclaim", -6, Command.WRITE | Command.SELF_PROPAGATING, 1, 1, 1, (d, args, ack, ctx) -> d.handleXClaim(args)),
+            new Command("xautoclaim", -6, Command.WRITE | Command.SELF_PROPAGATING, 1, 1, 1,
+                    (d, args, ack, ctx) -> d.handleXAutoClaim(args)),
+            new Command("wait", 3, Command.BLOCKING, 0, 0, 0, (d, args, ack, ctx) -> d.handleWait(args, ctx)),
+            new Command("multi", 1, Command.TRANSACTION, 0, 0, 0, (d, args, ack, ctx) -> d.handleMultiCommand(args, ctx)),
+            new Command("exec", 1, Command.TRANSACTION, 0, 0, 0, (d, args, ack, ctx) -> d.handleExecCommand(args, ctx)),
+            new Command("watch", -2, Command.TRANSACTION, 1, -1, 1, (d, args, ack, ctx) -> d.handleWatchCommand(args, ctx)),
+            new Command("unwatch", 1, 0, 0, 0, 0, (d, args, ack, ctx) -> d.handleUnwatchCommand(ctx)),
+            new Command("discard", 1, Command.TRANSACTION, 0, 0, 0, (d, args, ack, ctx) -> d.handleTransactionDiscardCommand(args, ctx)),
+            new Command("config", -2, Command.ADMIN, 0, 0, 0, (d, args, ack, ctx) -> d.handleConfigCommand(args)),
+            new Command("info", -1, 0, 0, 0, 0, (d, args, ack, ctx) -> d.handleInfoCommand(args)),
+            new Command("slowlog", -2, Command.ADMIN, 0, 0, 0, (d, args, ack, ctx) -> d.handleSlowlogCommand(args)),
+            new Command("latency", -2, Command.ADMIN, 0, 0, 0, (d, args, ack, ctx) -> d.handleLatencyCommand(args)),
+            new Command("command", -1, 0, 0, 0, 0, (d, args, ack, ctx) -> d.handleCommandCommand(args)),
+            new Command("replconf", -1, Command.ADMIN | Command.HANDSHAKE, 0, 0, 0, (d, args, ack, ctx) -> d.handleReplConf(args, ack)),
+            new Command("psync", -3, Command.ADMIN | Command.HANDSHAKE, 0, 0, 0, (d, args, ack, ctx) -> d.handlePSync()),
+            new Command("sync", 1, Command.ADMIN | Command.HANDSHAKE, 0, 0, 0, (d, args, ack, ctx) -> d.handlePSync())
+    ));
+
+    public static Command lookup(byte[] name) {
+        return COMMANDS.lookup(name);
+    }
+
+    public static boolean isBlocking(byte[][] args) {
+        return isBlocking(lookup(args[0]), args);
+    }
+
+    public static boolean isBlocking(Command command, byte[][] args) {
+
+        if (command == null || !command.has(Command.BLOCKING)) {
+            return false;
+        }
+        // XREAD and XREADGROUP only block when asked to.
+        return switch (command.name()) {
+            case "xread" -> args.length > 1 && Helper.equalsIgnoreCase(args[1], "block");
+            case "xreadgroup" -> optionBeforeStreams(args, "block");
+            default -> true;
+        };
+    }
 
-//        System.out.println("Processing command: " + Arrays.toString(args));
+    private static boolean optionBeforeStreams(byte[][] args, String option) {
+
+        for (int i = 1; i < args.length && !Helper.equalsIgnoreCase(args[i], "streams"); i++) {
+            if (Helper.equalsIgnoreCase(args[i], option)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public RedisResponse dispatch(byte[][] args, long ack, ConnectionContext ctx) {
 
         if (args == null || args.length == 0) {
             return new ErrorResponse("ERR Empty command");
         }
+        return dispatch(lookup(args[0]), args, ack, ctx);
+    }
 
-        String command = args[0].toUpperCase();
+    /**
+     * Dispatches a command already resolved with {@link #lookup}; {@code command} is null for unknown names.
+     */
+    public RedisResponse dispatch(Command command, byte[][] args, long ack, ConnectionContext ctx) {
 
-        if (ctx.isInTransaction() && !command.equals("EXEC") && !command.equals("DISCARD")) {
+        RedisResponse rejected = validate(command, args);
+        if (rejected != null) {
+            return rejected;
+        }
+
+        if (ctx.isInTransaction() && !command.has(Command.TRANSACTION)) {
             ctx.queueTransactionCommand(args);
-            return new SimpleStringResponse("QUEUED");
-        }
-
-        return dispatchInternal(args, ack, ctx);
-    }
-
-    private RedisResponse dispatchInternal(String[] args, long ack, ConnectionContext ctx) {
-
-        String command = args[0].toUpperCase();
-
-        return switch (command) {
-            case "PING" -> new SimpleStringResponse("PONG");
-            case "ECHO" -> new TextResponse(args[1]);
-            case "SET" -> handleSetCommand(args);
-            case "GET" -> handleGetCommand(args);
-            case "CONFIG" -> handleConfigCommand(args);
-            case "KEYS" -> handleKeyCommand();
-            case "INFO" -> handleInfoCommand(args);
-            case "REPLCONF" -> handleReplConf(args, ack);
-            case "PSYNC" -> handlePSync();
-            case "WAIT" -> handleWait(args);
-            case "TYPE" -> handleType(args);
-            case "XADD" -> handleXAdd(args);
-            case "XRANGE" -> handleXRange(args);
-            case "XREAD" -> handleXRead(args);
-            case "INCR" -> handleIncrCommand(args);
-            case "MULTI" -> handleMultiCommand(args, ctx);
-            case "EXEC" -> handleExecCommand(args, ctx);
-            case "DISCARD" -> handleTransactionDiscardCommand(args, ctx);
-            default -> unknownCommand(command);
-        };
+            return SimpleResponse.QUEUED;
+        }
+
+        return execute(command, args, ack, ctx);
+    }
+
+    private static RedisResponse validate(Command command, byte[][] args) {
+
+        if (command == null) {
+            return unknownCommand(args[0]);
+        }
+        if (!command.acceptsArity(args.length)) {
+            command.stats().recordRejected();
+            return new ErrorResponse("ERR wrong number of arguments for '" + command.name() + "' command");
+        }
+        return null;
+    }
+
+    private RedisResponse execute(Command command, byte[][] args, long ack, ConnectionContext ctx) {
+
+        if (command.has(Command.DENYOOM) && !Eviction.makeRoom()) {
+            command.stats().recordRejected();
+            return new ErrorResponse("OOM command not allowed when used memory > 'maxmemory'.");
+        }
+
+        long start = System.nanoTime();
+        RedisResponse response = command.has(Command.WRITE)
+                ? executeWrite(command, args, ack, ctx)
+                : command.handler().handle(this, args, ack, ctx);
+        boolean failed = response instanceof ErrorResponse;
+        long elapsed = System.nanoTime() - start;
+        command.stats().record(elapsed, failed);
+        SlowLog.maybeRecord(elapsed, args, ctx);
+        return response;
+    }
+
+    /**
+     * Runs a write command holding its keys' stripe locks, so an EXEC touching the same stripes never
+     * interleaves with it. The stores bump the versions of the keys it changes, for WATCH.
+     * Propagation happens under the lock too, keeping per-key replication order.
+     */
+    private RedisResponse executeWrite(Command command, byte[][] args, long ack, ConnectionContext ctx) {
+
+        if (command.isSingleKey()) {
+            int stripe = KeyStripes.stripeOf(args[command.firstKey()]);
+            KeyStripes.lock(stripe);
+            try {
+                return runWrite(command, args, ack, ctx);
+            } finally {
+                KeyStripes.unlock(stripe);
+            }
+        }
+        if (command.firstKey() == 0) {
+            // No keys at fixed positions (XREADGROUP): the handler locks what it touches.
+            return runWrite(command, args, ack, ctx);
+        }
+
+        int[] stripes = stripesOf(List.of(command), List.<byte[][]>of(args), Map.of());
+        KeyStripes.lockAll(stripes);
+        try {
+            return runWrite(command, args, ack, ctx);
+        } finally {
+            KeyStripes.unlockAll(stripes);
+        }
+    }
+
+    private RedisResponse runWrite(Command command, byte[][] args, long ack, ConnectionContext ctx) {
+
+        RedisResponse response = command.handler().handle(this, args, ack, ctx);
+        if (!(response instanceof ErrorResponse) && !command.has(Command.SELF_PROPAGATING)) {
+            ReplicationManager.propagateToReplicas(args);
+        }
+        return response;
+    }
+
+    private static int[] stripesOf(List<Command> commands, List<byte[][]> argsList, Map<Key, Long> watched) {
+
+        int[] stripes = new int[16];
+        int count = 0;
+        for (int i = 0; i < commands.size(); i++) {
+            for (byte[] key : keysOf(commands.get(i), argsList.get(i))) {
+                if (count == stripes.length) {
+                    stripes = Arrays.copyOf(stripes, count * 2);
+                }
+                stripes[count++] = KeyStripes.stripeOf(key);
+            }
+        }
+        for (Key key : watched.keySet()) {
+            if (count == stripes.length) {
+                stripes = Arrays.copyOf(stripes, count * 2);
+            }
+            stripes[count++] = KeyStripes.stripeOf(key);
+        }
+        return KeyStripes.distinctSorted(stripes, count);
+    }
+
+    /**
+     * The command's keys, counting XREADGROUP's streams so that EXEC locks them up front rather than
+     * the handler taking them out of order.
+     */
+    private static List<byte[]> keysOf(Command command, byte[][] args) {
+
+        if (!command.name().equals("xreadgroup")) {
+            return command.keys(args);
+        }
+        List<byte[]> keys = new ArrayList<>();
+        int streams = 1;
+        while (streams < args.length && !Helper.equalsIgnoreCase(args[streams], "streams")) {
+            streams++;
+        }
+        int count = (args.length - streams - 1) / 2;
+        for (int i = 0; i < count; i++) {
+            keys.add(args[streams + 1 + i]);
+        }
+        return keys;
+    }
+
+    private RedisResponse handleWatchCommand(byte[][] args, ConnectionContext ctx) {
+
+        if (ctx.isInTransaction()) {
+            return new ErrorResponse("ERR WATCH inside MULTI is not allowed");
+        }
+        for (int i = 1; i < args.length; i++) {
+            ctx.watch(new Key(args[i]));
+        }
+        return SimpleResponse.OK;
     }
 
-    private RedisResponse handleTransactionDiscardCommand(String[] args, ConnectionContext ctx) {
+    private RedisResponse handleUnwatchCommand(ConnectionContext ctx) {
+
+        ctx.clearWatches();
+        return SimpleResponse.OK;
+    }
+
+    private RedisResponse handleTransactionDiscardCommand(byte[][] args, ConnectionContext ctx) {
 
         if (ctx.isInTransaction()) {
             ctx.finishTransaction();
             ctx.clearTransactionCommands();
-            return new SimpleStringResponse("OK");
+            ctx.clearWatches();
+            return SimpleResponse.OK;
         } else {
             return new ErrorResponse("ERR DISCARD without MULTI");
         }
     }
 
-    private RedisResponse handleExecCommand(String[] args, ConnectionContext ctx) {
+    /**
+     * Locks the stripes of every queued key plus every watched key (in stripe order), aborts with a
+     * null reply if a watched key changed since WATCH, and otherwise runs the whole queue before
+     * releasing them. Transactions on disjoint stripes run concurrently.
+     */
+    private RedisResponse handleExecCommand(byte[][] args, ConnectionContext ctx) {
 
         if (!ctx.isInTransaction()) {
             return new ErrorResponse("ERR EXEC without MULTI");
         }
 
-        List<SimpleResponse> transactionCommandResults = new ArrayList<>();
+        List<byte[][]> queued = new ArrayList<>();
+        List<Command> commands = new ArrayList<>();
         while (!ctx.isTransactionCommandsEmpty()) {
-            String[] transactionCommand = ctx.dequeueTransactionCommand();
-            SimpleResponse dispatch = (SimpleResponse) dispatchInternal(transactionCommand, 0, ctx);
-            transactionCommandResults.add(dispatch);
+            byte[][] transactionCommand = ctx.dequeueTransactionCommand();
+            queued.add(transactionCommand);
+            commands.add(lookup(transactionCommand[0]));
         }
         ctx.finishTransaction();
-        return new BulkArrayResponse(transactionCommandResults);
+
+        Map<Key, Long> watched = ctx.getWatchedKeys();
+        int[] stripes = stripesOf(commands, queued, watched);
+        KeyStripes.lockAll(stripes);
+        ctx.setExecutingTransaction(true);
+        try {
+            for (Map.Entry<Key, Long> watch : watched.entrySet()) {
+                if (KeyStripes.version(watch.getKey()) != watch.getValue()) {
+                    return new ConstantResponse(RespBuffer.NULL_ARRAY);
+                }
+            }
+
+            // Writes inside re-enter their stripe locks, which this thread already holds.
+            List<SimpleResponse> transactionCommandResults = new ArrayList<>();
+            for (int i = 0; i < queued.size(); i++) {
+                transactionCommandResults.add(transactionReply(commands.get(i), queued.get(i), ctx));
+            }
+            return new BulkArrayResponse(transactionCommandResults);
+        } finally {
+            ctx.setExecutingTransaction(false);
+            KeyStripes.unlockAll(stripes);
+            ctx.clearWatches();
+        }
+    }
+
+    // Every queued command gets an element in the EXEC reply. The only write a replica leaves
+    // unanswered is a SET that went through, and a command that throws answers with an error, as it
+    // would outside MULTI.
+    private SimpleResponse transactionReply(Command command, byte[][] args, ConnectionContext ctx) {
+
+        RedisResponse response;
+        try {
+            response = execute(command, args, 0, ctx);
+        } catch (RuntimeException e) {
+            return new ErrorResponse("ERR " + e.getMessage());
+        }
+        if (response == null) {
+            return SimpleResponse.OK;
+        }
+        if (response instanceof SimpleResponse simple) {
+            return simple;
+        }
+        return new ErrorResponse("ERR '" + command.name() + "' cannot be used inside a transaction");
     }
 
-    private RedisResponse handleMultiCommand(String[] args, ConnectionContext ctx) {
+    private RedisResponse handleMultiCommand(byte[][] args, ConnectionContext ctx) {
 
+        if (ctx.isInTransaction()) {
+            return new ErrorResponse("ERR MULTI calls can not be nested");
+        }
         ctx.startTransaction();
-        return new SimpleStringResponse("OK");
+        return SimpleResponse.OK;
     }
 
-    private RedisResponse handleIncrCommand(String[] args) {
+    private static Key[] keysFrom(byte[][] args, int first, int step) {
 
-        String key = args[1];
-        String value = Storage.get(key);
-        if (value != null) {
-            try {
-                int newValue = Integer.parseInt(value) + 1;
-                Storage.set(key, String.valueOf(newValue));
-                return new IntegerResponse(newValue);
-            } catch (NumberFormatException e) {
-                return new ErrorResponse("ERR value is not an integer or out of range");
+        Key[] keys = new Key[(args.length - first + step - 1) / step];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new Key(args[first + i * step]);
+        }
+        return keys;
+    }
+
+    private RedisResponse handleMGet(byte[][] args) {
+        return new NullableBinaryArrayResponse(Storage.getAll(keysFrom(args, 1, 1)));
+    }
+
+    private RedisResponse handleMSet(byte[][] args, boolean onlyIfNoneExist) {
+
+        if (args.length % 2 == 0) {
+            return new ErrorResponse("ERR wrong number of arguments for '" + (onlyIfNoneExist ? "msetnx" : "mset") + "' command");
+        }
+
+        Key[] keys = keysFrom(args, 1, 2);
+        byte[][] values = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = args[2 + i * 2];
+        }
+
+        // Every key's stripe is locked by executeWrite, so the check and the writes are one step.
+        if (onlyIfNoneExist) {
+            for (Key key : keys) {
+                if (Storage.exists(key) || StreamStorage.contains(key)) {
+                    return new IntegerResponse(0);
+                }
+            }
+        }
+        Storage.setAll(keys, values);
+        return onlyIfNoneExist ? new IntegerResponse(1) : SimpleResponse.OK;
+    }
+
+    /**
+     * DEL and UNLINK. Both only unhook the value: a removed stream may still be in use by lock-free
+     * readers, so nothing dismantles it and the garbage collector frees it once they are done.
+     */
+    private RedisResponse handleDel(byte[][] args) {
+
+        Key[] keys = keysFrom(args, 1, 1);
+        long removed = 0;
+        for (int i : KeyStripes.orderByStripe(keys)) {
+            if (Storage.remove(keys[i])) {
+                removed++;
+            }
+            if (StreamStorage.remove(keys[i]) != null) {
+                removed++;
+            }
+        }
+        return new IntegerResponse(removed);
+    }
+
+    private RedisResponse handleExists(byte[][] args) {
+
+        Key[] keys = keysFrom(args, 1, 1);
+        long found = 0;
+        for (int i : KeyStripes.orderByStripe(keys)) {
+            if (Storage.exists(keys[i]) || StreamStorage.contains(keys[i])) {
+                found++;
             }
         }
-        int startCount = 1;
-        Storage.set(key, String.valueOf(startCount));
+        return new IntegerResponse(found);
+    }
+
+    private RedisResponse handleIncrBy(byte[][] args, long delta) {
+
+        try {
+            return new IntegerResponse(Storage.incrementBy(new Key(args[1]), delta));
+        } catch (NumberFormatException e) {
+            return new ErrorResponse("ERR value is not an integer or out of range");
+        } catch (ArithmeticException e) {
+            return new ErrorResponse("ERR increment or decrement would overflow");
+        }
+    }
+
+    private RedisResponse handleIncrByArgument(byte[][] args, boolean decrement) {
 
-        return new IntegerResponse(startCount);
+        long delta;
+        try {
+            delta = Helper.parseLong(args[2]);
+        } catch (NumberFormatException e) {
+            return new ErrorResponse("ERR value is not an integer or out of range");
+        }
+        if (decrement) {
+            if (delta == Long.MIN_VALUE) {
+                return new ErrorResponse("ERR decrement would overflow");
+            }
+            delta = -delta;
+        }
+        return handleIncrBy(args, delta);
     }
 
-    private RedisResponse handleXRead(String[] args) {
+    private RedisResponse handleIncrByFloat(byte[][] args) {
 
+        double delta;
+        try {
+            delta = Storage.parseDouble(args[2]);
+        } catch (NumberFormatException e) {
+            return new ErrorResponse("ERR value is not a valid float");
+        }
+        try {
+            return new BinaryResponse(Storage.incrementByFloat(new Key(args[1]), delta));
+        } catch (NumberFormatException e) {
+            return new ErrorResponse("ERR value is not a valid float");
+        } catch (ArithmeticException e) {
+            return new ErrorResponse("ERR increment would produce NaN or Infinity");
+        }
+    }
+
+    private RedisResponse handleXRead(byte[][] args, ConnectionContext ctx) {
+
+        boolean block = Helper.equalsIgnoreCase(args[1], "block");
         int k = 2;
-        if (args[1].equals("block")) {
+        if (block) {
             k = 4;
         }
-        List<String> streams = new ArrayList<>();
+        // Keys fill the first half of what follows STREAMS and their IDs the second, so a key may
+        // look like an ID and each '$' resolves against its own stream.
+        int count = (args.length - k) / 2;
+        if (count == 0 || (args.length - k) % 2 != 0) {
+            return new ErrorResponse("ERR Unbalanced 'xread' list of streams: for each stream key an ID or '$' must be specified.");
+        }
+        List<Key> streams = new ArrayList<>();
         List<String> times = new ArrayList<>();
-        for(int i = k; i < args.length; i++) {
-            String currentArg = args[i];
-            if (currentArg.charAt(0) >= '0' && currentArg.charAt(0) <= '9') {
-                times.add(currentArg);
-            } else if (currentArg.charAt(0) == '$') {
-                Optional<StreamEntry> last = StreamStorage.getLast(streams.getLast());
-                String time = last.map(streamEntry -> streamEntry.id().toString()).orElse("-");
-                times.add(time);
+        for (int i = 0; i < count; i++) {
+            Key stream = new Key(args[k + i]);
+            byte[] id = args[k + count + i];
+            if (id.length == 1 && id[0] == '$') {
+                StreamId last = StreamStorage.lastId(stream);
+                times.add(last == null ? "-" : last.toString());
             } else {
-                streams.add(currentArg);
+                times.add(text(id));
             }
+            streams.add(stream);
         }
 
-        if (!args[1].equals("block")) {
+        if (!block) {
             return new XReadResponse(fetchXRead(streams, times), streams);
         }
 
-        long blockTime = Long.parseLong(args[2]);
-        long deadline = System.currentTimeMillis() + blockTime;
-        Object lock = StreamLocks.getLock(streams.getFirst());
-        synchronized (lock) {
-            while (true) {
-                long leftTime = deadline - System.currentTimeMillis();
-                if (leftTime <= 0 && blockTime != 0) break;
-
-                try {
-                    lock.wait(blockTime == 0 ? 0 : leftTime);
-                } catch (InterruptedException e) {
-                    System.out.println("Interrupted");
-                    Thread.currentThread().interrupt();
-                    return new NullStringResponse();
-                }
-
-                Map<String, List<StreamEntry>> entries = fetchXRead(streams, times);
-                boolean hasEmptyData = entries.values().stream().anyMatch(List::isEmpty);
-                if (!hasEmptyData) {
-                    return new XReadResponse(entries, streams);
-                }
-                if (blockTime == 0) {
-                    break;
-                }
-            }
+        long blockTime = Helper.parseLong(args[2]);
+        long deadline = blockTime == 0 ? 0 : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTime);
+        Map<Key, StreamId> after = new HashMap<>();
+        for (int i = 0; i < streams.size(); i++) {
+            after.put(streams.get(i), StreamId.fromString(times.get(i)));
         }
+        // Returns as soon as any stream has entries, with only the streams that do, as Redis does.
+        // Inside EXEC it does not wait at all.
+        do {
+            Map<Key, List<StreamEntry>> entries = fetchXRead(streams, times);
+            List<Key> ready = streams.stream().filter(stream -> !entries.get(stream).isEmpty()).toList();
+            if (!ready.isEmpty()) {
+                return new XReadResponse(entries, ready);
+            }
+        } while (!ctx.isExecutingTransaction() && BlockedReaders.await(after, deadline));
 
-        return new NullStringResponse();
+        if (Thread.currentThread().isInterrupted()) {
+            Log.verbose("Interrupted");
+        }
+        return SimpleResponse.NULL;
     }
 
-    private Map<String, List<StreamEntry>> fetchXRead(List<String> streams, List<String> times) {
+    private Map<Key, List<StreamEntry>> fetchXRead(List<Key> streams, List<String> times) {
 
-        Map<String, List<StreamEntry>> entries = new HashMap<>();
+        Map<Key, List<StreamEntry>> entries = new HashMap<>();
 
         for (int i = 0; i < streams.size(); i++) {
             List<StreamEntry> data = StreamStorage.read(streams.get(i), times.get(i));
@@ -173,35 +510,677 @@ public class CommandDispatcher {
         return entries;
     }
 
-    private RedisResponse handleXRange(String[] args) {
+    private RedisResponse handleXRange(byte[][] args) {
 
-        String streamName = args[1];
-        String from = args[2];
-        String to = args[3];
+        Key streamName = new Key(args[1]);
+        String from = text(args[2]);
+        String to = text(args[3]);
 
         List<StreamEntry> data = StreamStorage.fetch(streamName, from, to);
 
         return new XRangeResponse(data);
     }
 
-    private RedisResponse handleXAdd(String[] args) {
+    private RedisResponse handleXAdd(byte[][] args) {
+
+        int[] at = {2};
+        Stream.Trim trim;
+        try {
+            trim = parseTrim(args, at);
+        } catch (InvalidStreamIdArgumentException e) {
+            return new ErrorResponse(e.getMessage());
+        }
+        int idIndex = at[0];
+        if (args.length - idIndex < 3 || (args.length - idIndex - 1) % 2 != 0) {
+            return new ErrorResponse("ERR wrong number of arguments for 'xadd' command");
+        }
 
-        String streamName = args[1];
-        String[] streamArgs = Arrays.copyOfRange(args, 3, args.length);
+        Key streamName = new Key(args[1]);
+        byte[][] streamArgs = Arrays.copyOfRange(args, idIndex + 1, args.length);
 
-        String id = args[2];
+        String id = text(args[idIndex]);
         try {
-            id = StreamStorage.add(streamName, id, streamArgs);
+            id = StreamStorage.add(streamName, id, streamArgs, trim);
         } catch (InvalidStreamIdArgumentException e) {
             return new ErrorResponse(e.getMessage());
+        } catch (NumberFormatException e) {
+            return new ErrorResponse("ERR Invalid stream ID specified as stream command argument");
         }
+        // Replicas must store the ID the master chose, not re-resolve "*".
+        args[idIndex] = id.getBytes(StandardCharsets.US_ASCII);
         return new TextResponse(id);
     }
 
-    private RedisResponse handleType(String[] args) {
+    private RedisResponse handleXTrim(byte[][] args) {
+
+        int[] at = {2};
+        Stream.Trim trim;
+        try {
+            trim = parseTrim(args, at);
+        } catch (InvalidStreamIdArgumentException e) {
+            return new ErrorResponse(e.getMessage());
+        }
+        if (trim == null || at[0] != args.length) {
+            return new ErrorResponse("ERR syntax error");
+        }
+        return new IntegerResponse(StreamStorage.trim(new Key(args[1]), trim));
+    }
+
+    /**
+     * Parses {@code MAXLEN|MINID [=|~] threshold} at {@code args[at[0]]} and moves {@code at} past it.
+     * Returns null, consuming nothing, if no trim clause starts there.
+     */
+    private static Stream.Trim parseTrim(byte[][] args, int[] at) throws InvalidStreamIdArgumentException {
+
+        int i = at[0];
+        boolean byMinId = Helper.equalsIgnoreCase(args[i], "MINID");
+        if (!byMinId && !Helper.equalsIgnoreCase(args[i], "MAXLEN")) {
+            return null;
+        }
+        i++;
+        boolean approximate = false;
+        if (i < args.length && args[i].length == 1 && (args[i][0] == '~' || args[i][0] == '=')) {
+            approximate = args[i][0] == '~';
+            i++;
+        }
+        if (i >= args.length) {
+            throw new InvalidStreamIdArgumentException("ERR syntax error");
+        }
+        byte[] threshold = args[i++];
+        at[0] = i;
+
+        if (byMinId) {
+            try {
+                return new Stream.Trim(0, StreamId.fromString(text(threshold)), approximate);
+            } catch (NumberFormatException e) {
+                throw new InvalidStreamIdArgumentException("ERR Invalid stream ID specified as stream command argument");
+            }
+        }
+        long maxLen;
+        try {
+            maxLen = Helper.parseLong(threshold);
+        } catch (NumberFormatException e) {
+            throw new InvalidStreamIdArgumentException("ERR value is not an integer or out of range");
+        }
+        if (maxLen < 0) {
+            throw new InvalidStreamIdArgumentException("ERR The MAXLEN argument must be >= 0.");
+        }
+        return new Stream.Trim(maxLen, null, approximate);
+    }
+
+    private RedisResponse handleXGroup(byte[][] args) {
+
+        byte[] subcommand = args[1];
+        Key streamName = new Key(args[2]);
+        Key groupName = new Key(args[3]);
+        boolean create = Helper.equalsIgnoreCase(subcommand, "create");
+        boolean setId = Helper.equalsIgnoreCase(subcommand, "setid");
+        boolean byConsumer = Helper.equalsIgnoreCase(subcommand, "createconsumer")
+                || Helper.equalsIgnoreCase(subcommand, "delconsumer");
+        if (!create && !setId && !byConsumer && !Helper.equalsIgnoreCase(subcommand, "destroy")) {
+            return new ErrorResponse("ERR unknown subcommand '" + text(subcommand) + "'. Try XGROUP HELP.");
+        }
+
+        // CREATE and SETID take an ID, optionally followed by MKSTREAM (CREATE only) and ENTRIESREAD.
+        boolean mkStream = false;
+        int expected = byConsumer ? 5 : 4;
+        if (create || setId) {
+            expected = 5;
+            while (expected < args.length) {
+                if (create && Helper.equalsIgnoreCase(args[expected], "mkstream")) {
+                    mkStream = true;
+                    expected++;
+                } else if (Helper.equalsIgnoreCase(args[expected], "entriesread") && expected + 1 < args.length) {
+                    expected += 2;
+                } else {
+                    return new ErrorResponse("ERR syntax error");
+                }
+            }
+        }
+        if (args.length != expected) {
+            return new ErrorResponse("ERR unknown subcommand or wrong number of arguments for '"
+                    + text(subcommand).toLowerCase() + "'. Try XGROUP HELP.");
+        }
+
+        if (!mkStream && !StreamStorage.contains(streamName)) {
+            return new ErrorResponse("ERR The XGROUP subcommand requires the key to exist. Note that for CREATE you "
+                    + "may want to use the MKSTREAM option to create an empty stream automatically.");
+        }
+        StreamId id = null;
+        if (create || setId) {
+            try {
+                id = parseLastDeliveredId(args[4], streamName);
+            } catch (NumberFormatException e) {
+                return new ErrorResponse("ERR Invalid stream ID specified as stream command argument");
+            }
+        }
+        StreamId lastDelivered = id;
+
+        if (create) {
+            boolean created = StreamStorage.update(streamName, true, stream -> stream.createGroup(groupName, lastDelivered));
+            return created ? SimpleResponse.OK : new ErrorResponse("BUSYGROUP Consumer Group name already exists");
+        }
+        if (!setId && !byConsumer) {
+            return new IntegerResponse(StreamStorage.update(streamName, false, stream -> stream.removeGroup(groupName)) ? 1 : 0);
+        }
+
+        ConsumerGroup group = StreamStorage.group(streamName, groupName);
+        if (group == null) {
+            return new ErrorResponse("NOGROUP No such consumer group '" + groupName + "' for key name '" + streamName + "'");
+        }
+        if (setId) {
+            return StreamStorage.update(streamName, false, stream -> {
+                group.setLastDelivered(lastDelivered);
+                return SimpleResponse.OK;
+            });
+        }
+        Key consumerName = new Key(args[4]);
+        if (Helper.equalsIgnoreCase(subcommand, "createconsumer")) {
+            if (group.consumer(consumerName) != null) {
+                return new IntegerResponse(0);
+            }
+            StreamStorage.update(streamName, false, stream -> group.seen(consumerName, Clock.millis()));
+            return new IntegerResponse(1);
+        }
+        long removed = StreamStorage.update(streamName, false, stream -> group.removeConsumer(consumerName));
+        return new IntegerResponse(Math.max(removed, 0));
+    }
+
+    // '$' is the stream's last ID, so the group starts with only entries added from now on.
+    private static StreamId parseLastDeliveredId(byte[] arg, Key streamName) {
+
+        if (arg.length == 1 && arg[0] == '$') {
+            StreamId last = StreamStorage.lastId(streamName);
+            return last == null ? StreamId.of(0, 0) : last;
+        }
+        return parseId(arg, false);
+    }
+
+    /**
+     * XREADGROUP GROUP group consumer [COUNT n] [BLOCK ms] [NOACK] STREAMS key... id... where an ID
+     * of '>' asks for entries never delivered to the group and any other ID re-reads the consumer's
+     * pending entries after it. Each stream is read under its stripe lock, and what was delivered is
+     * replicated as XCLAIM and XGROUP SETID, which replay the same way on a replica. A read that only
+     * asks for new entries and finds none blocks like XREAD, except inside EXEC.
+     */
+    private RedisResponse handleXReadGroup(byte[][] args, ConnectionContext ctx) {
+
+        if (!Helper.equalsIgnoreCase(args[1], "group")) {
+            return new ErrorResponse("ERR syntax error");
+        }
+        Key groupName = new Key(args[2]);
+        Key consumerName = new Key(args[3]);
+        int count = 0;
+        long blockTime = -1;
+        boolean noAck = false;
+        int k = 4;
+        for (; k < args.length && !Helper.equalsIgnoreCase(args[k], "streams"); k++) {
+            try {
+                if (Helper.equalsIgnoreCase(args[k], "count") && k + 1 < args.length) {
+                    count = (int) Math.min(Math.max(Helper.parseLong(args[++k]), 0), Integer.MAX_VALUE);
+                } else if (Helper.equalsIgnoreCase(args[k], "block") && k + 1 < args.length) {
+                    blockTime = Helper.parseLong(args[++k]);
+                    if (blockTime < 0) {
+                        return new ErrorResponse("ERR timeout is negative");
+                    }
+                } else if (Helper.equalsIgnoreCase(args[k], "noack")) {
+                    noAck = true;
+                } else {
+                    return new ErrorResponse("ERR syntax error");
+                }
+            } catch (NumberFormatException e) {
+                return new ErrorResponse("ERR value is not an integer or out of range");
+            }
+        }
+        k++;
+        int streamCount = (args.length - k) / 2;
+        if (streamCount == 0 || (args.length - k) % 2 != 0) {
+            return new ErrorResponse("ERR Unbalanced 'xreadgroup' list of streams: for each stream key an ID or '>' must be specified.");
+        }
+
+        List<Key> streams = new ArrayList<>();
+        // Null for '>'.
+        List<StreamId> ids = new ArrayList<>();
+        boolean history = false;
+        for (int i = 0; i < streamCount; i++) {
+            Key stream = new Key(args[k + i]);
+            byte[] id = args[k + streamCount + i];
+            if (id.length == 1 && id[0] == '>') {
+                ids.add(null);
+            } else if (id.length == 1 && id[0] == '$') {
+                return new ErrorResponse("ERR The $ ID is meaningless in the context of XREADGROUP: you want to read "
+                        + "the history of this consumer by specifying a proper ID, or use the > ID to get new messages. "
+                        + "The $ ID would just return an empty result set.");
+            } else {
+                try {
+                    ids.add(parseId(id, false));
+                } catch (NumberFormatException e) {
+                    return new ErrorResponse("ERR Invalid stream ID specified as stream command argument");
+                }
+                history = true;
+            }
+            if (StreamStorage.group(stream, groupName) == null) {
+                return noGroupForRead(stream, groupName);
+            }
+            streams.add(stream);
+        }
+
+        long deadline = blockTime <= 0 ? 0 : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTime);
+        while (true) {
+            Map<Key, List<StreamEntry>> entries = new HashMap<>();
+            List<Key> ready = new ArrayList<>();
+            Map<Key, StreamId> after = new HashMap<>();
+            for (int i = 0; i < streams.size(); i++) {
+                Key stream = streams.get(i);
+                int stripe = KeyStripes.stripeOf(stream);
+                List<StreamEntry> read;
+                KeyStripes.lock(stripe);
+                try {
+                    read = readGroup(stream, groupName, consumerName, ids.get(i), count, noAck);
+                    if (read == null) {
+                        return noGroupForRead(stream, groupName);
+                    }
+                    after.put(stream, StreamStorage.group(stream, groupName).lastDelivered());
+                } finally {
+                    KeyStripes.unlock(stripe);
+                }
+                // History reads always report their stream, even with nothing pending.
+                if (history || !read.isEmpty()) {
+                    entries.put(stream, read);
+                    ready.add(stream);
+                }
+            }
+            if (!ready.isEmpty()) {
+                return new XReadResponse(entries, ready);
+            }
+            if (blockTime < 0 || ctx.isExecutingTransaction() || !BlockedReaders.await(after, groupName, deadline)) {
+                return SimpleResponse.NULL;
+            }
+        }
+    }
+
+    /**
+     * One stream's share of an XREADGROUP, with its replication; null if the group is gone. The
+     * caller holds the stream's stripe lock.
+     */
+    private static List<StreamEntry> readGroup(Key streamName, Key groupName, Key consumerName, StreamId after, int count,
+                                               boolean noAck) {
+
+        return StreamStorage.update(streamName, false, stream -> {
+            ConsumerGroup group = stream.group(groupName);
+            if (group == null) {
+                return null;
+            }
+            long now = Clock.millis();
+            boolean known = group.consumer(consumerName) != null;
+            ConsumerGroup.Consumer consumer = group.seen(consumerName, now);
+            if (!known) {
+                ReplicationManager.propagateToReplicas(new byte[][]{
+                        ascii("XGROUP"), ascii("CREATECONSUMER"), streamName.bytes(), groupName.bytes(), consumerName.bytes()});
+            }
+            if (after != null) {
+                List<StreamEntry> entries = group.readHistory(stream, consumer, after, count, now);
+                for (StreamEntry entry : entries) {
+                    if (entry.values() != null) {
+                        propagateClaim(streamName, group, group.pending().get(entry.id()));
+                    }
+                }
+                return entries;
+            }
+            List<StreamEntry> entries = group.readNew(stream, consumer, count, noAck, now);
+            if (!entries.isEmpty()) {
+                if (!noAck) {
+                    for (StreamEntry entry : entries) {
+                        propagateClaim(streamName, group, group.pending().get(entry.id()));
+                    }
+                }
+                ReplicationManager.propagateToReplicas(new byte[][]{
+                        ascii("XGROUP"), ascii("SETID"), streamName.bytes(), groupName.bytes(),
+                        ascii(group.lastDelivered().toString())});
+            }
+            return entries;
+        });
+    }
+
+    private static RedisResponse noGroupForRead(Key streamName, Key groupName) {
+        return new ErrorResponse("NOGROUP No such key '" + streamName + "' or consumer group '" + groupName
+                + "' in XREADGROUP with GROUP option");
+    }
+
+    private RedisResponse handleXAck(byte[][] args) {
+
+        List<StreamId> ids = new ArrayList<>();
+        try {
+            for (int i = 3; i < args.length; i++) {
+                ids.add(parseId(args[i], false));
+            }
+        } catch (NumberFormatException e) {
+            return new ErrorResponse("ERR Invalid stream ID specified as stream command argument");
+        }
+        Long acked = StreamStorage.update(new Key(args[1]), false, stream -> {
+            ConsumerGroup group = stream.group(new Key(args[2]));
+            long count = 0;
+            if (group != null) {
+                for (StreamId id : ids) {
+                    if (group.acknowledge(id)) {
+                        count++;
+                    }
+                }
+            }
+            return count;
+        });
+        return new IntegerResponse(acked == null ? 0 : acked);
+    }
+
+    /**
+     * XPENDING key group, a summary, or XPENDING key group [IDLE ms] start end count [consumer], the
+     * pending entries in that ID range. Reads the pending lists without the stripe lock.
+     */
+    private RedisResponse handleXPending(byte[][] args) {
+
+        Key streamName = new Key(args[1]);
+        Key groupName = new Key(args[2]);
+        ConsumerGroup group = StreamStorage.group(streamName, groupName);
+        if (args.length != 3 && args.length < 6) {
+            return new ErrorResponse("ERR syntax error");
+        }
+        if (group == null) {
+            return new ErrorResponse("NOGROUP No such key '" + streamName + "' or consumer group '" + groupName + "'");
+        }
+        if (args.length == 3) {
+            return pendingSummary(group);
+        }
+
+        int i = 3;
+        long minIdle = 0;
+        StreamId start;
+        StreamId end;
+        long count;
+        try {
+            if (Helper.equalsIgnoreCase(args[i], "idle")) {
+                minIdle = Helper.parseLong(args[i + 1]);
+                i += 2;
+            }
+            if (args.length - i < 3 || args.length - i > 4) {
+                return new ErrorResponse("ERR syntax error");
+            }
+            count = Math.max(Helper.parseLong(args[i + 2]), 0);
+        } catch (NumberFormatException e) {
+            return new ErrorResponse("ERR value is not an integer or out of range");
+        }
+        try {
+            start = parseRangeBound(args[i], false);
+            end = parseRangeBound(args[i + 1], true);
+        } catch (NumberFormatException e) {
+            return new ErrorResponse("ERR Invalid stream ID specified as stream command argument");
+        }
+        NavigableMap<StreamId, ConsumerGroup.Pending> pending = group.pending();
+        if (args.length - i == 4) {
+            ConsumerGroup.Consumer consumer = group.consumer(new Key(args[i + 3]));
+            pending = consumer == null ? Collections.emptyNavigableMap() : consumer.pending();
+        }
+
+        List<SimpleResponse> reply = new ArrayList<>();
+        if (start.compareTo(end) <= 0) {
+            long now = Clock.millis();
+            for (ConsumerGroup.Pending entry : pending.subMap(start, true, end, true).values()) {
+                if (reply.size() == count) {
+                    break;
+                }
+                long idle = entry.idle(now);
+                if (idle < minIdle) {
+                    continue;
+                }
+                reply.add(new BulkArrayResponse(List.of(
+                        new TextResponse(entry.id().toString()),
+                        new BinaryResponse(entry.owner().name().bytes()),
+                        new IntegerResponse(idle),
+                        new IntegerResponse(entry.deliveryCount()))));
+            }
+        }
+        return new BulkArrayResponse(reply);
+    }
+
+    private static RedisResponse pendingSummary(ConsumerGroup group) {
+
+        NavigableMap<StreamId, ConsumerGroup.Pending> pending = group.pending();
+        Map.Entry<StreamId, ConsumerGroup.Pending> first = pending.firstEntry();
+        Map.Entry<StreamId, ConsumerGroup.Pending> last = pending.lastEntry();
+        if (first == null || last == null) {
+            return new BulkArrayResponse(List.of(new IntegerResponse(0), SimpleResponse.NULL, SimpleResponse.NULL,
+                    new ConstantResponse(RespBuffer.NULL_ARRAY)));
+        }
+        List<SimpleResponse> consumers = new ArrayList<>();
+        for (ConsumerGroup.Consumer consumer : group.consumers()) {
+            long count = consumer.pendingCount();
+            if (count > 0) {
+                consumers.add(new BulkArrayResponse(List.of(
+                        new BinaryResponse(consumer.name().bytes()), new TextResponse(Long.toString(count)))));
+            }
+        }
+        return new BulkArrayResponse(List.of(new IntegerResponse(group.pendingCount()), new TextResponse(first.getKey().toString()),
+                new TextResponse(last.getKey().toString()), new BulkArrayResponse(consumers)));
+    }
+
+    /**
+     * XCLAIM key group consumer min-idle-time id... [IDLE ms] [TIME ms] [RETRYCOUNT n] [FORCE]
+     * [JUSTID] [LASTID id]. Replicated per claimed entry with its resulting time and count.
+     */
+    private RedisResponse handleXClaim(byte[][] args) {
+
+        Key streamName = new Key(args[1]);
+        Key groupName = new Key(args[2]);
+        Key consumerName = new Key(args[3]);
+        long minIdle;
+        try {
+            minIdle = Math.max(Helper.parseLong(args[4]), 0);
+        } catch (NumberFormatException e) {
+            return new ErrorResponse("ERR Invalid min-idle-time argument for XCLAIM");
+        }
+
+        long now = Clock.millis();
+        List<StreamId> ids = new ArrayList<>();
+        int i = 5;
+        for (; i < args.length; i++) {
+            try {
+                ids.add(parseId(args[i], false));
+            } catch (NumberFormatException e) {
+                break;
+            }
+        }
+        long deliveryTime = now;
+        long retryCount = -1;
+        boolean force = false;
+        boolean justId = false;
+        StreamId lastId = null;
+        for (; i < args.length; i++) {
+            boolean hasValue = i + 1 < args.length;
+            try {
+                if (Helper.equalsIgnoreCase(args[i], "force")) {
+                    force = true;
+                } else if (Helper.equalsIgnoreCase(args[i], "justid")) {
+                    justId = true;
+                } else if (Helper.equalsIgnoreCase(args[i], "idle") && hasValue) {
+                    deliveryTime = now - Math.max(Helper.parseLong(args[++i]), 0);
+                } else if (Helper.equalsIgnoreCase(args[i], "time") && hasValue) {
+                    deliveryTime = Math.min(Helper.parseLong(args[++i]), now);
+                } else if (Helper.equalsIgnoreCase(args[i], "retrycount") && hasValue) {
+                    retryCount = Math.max(Helper.parseLong(args[++i]), 0);
+                } else if (Helper.equalsIgnoreCase(args[i], "lastid") && hasValue) {
+                    lastId = parseId(args[++i], false);
+                } else {
+                    return new ErrorResponse("ERR Unrecognized XCLAIM option '" + text(args[i]) + "'");
+                }
+            } catch (NumberFormatException e) {
+                return new ErrorResponse("ERR Invalid " + text(args[i]) + " option argument for XCLAIM");
+            }
+        }
+
+        ConsumerGroup group = StreamStorage.group(streamName, groupName);
+        if (group == null) {
+            return new ErrorResponse("NOGROUP No such key '" + streamName + "' or consumer group '" + groupName + "'");
+        }
+        long time = deliveryTime;
+        long retries = retryCount;
+        boolean forced = force;
+        boolean idsOnly = justId;
+        StreamId newLastId = lastId;
+        List<StreamEntry> claimed = StreamStorage.update(streamName, false, stream -> {
+            if (newLastId != null && newLastId.isGreaterThan(group.lastDelivered())) {
+                group.setLastDelivered(newLastId);
+                ReplicationManager.propagateToReplicas(new byte[][]{ascii("XGROUP"), ascii("SETID"), streamName.bytes(),
+                        groupName.bytes(), ascii(newLastId.toString())});
+            }
+            ConsumerGroup.Consumer consumer = group.seen(consumerName, now);
+            ConsumerGroup.Claim claim = group.claim(stream, consumer, ids, minIdle, now, time, retries, forced, idsOnly);
+            return claimedEntries(stream, streamName, group, claim);
+        });
+        if (justId) {
+            return new BulkStringArrayResponse(claimed.stream().map(entry -> entry.id().toString()).toList());
+        }
+        return new XRangeResponse(claimed);
+    }
+
+    /**
+     * XAUTOCLAIM key group consumer min-idle-time start [COUNT n] [JUSTID]: claims up to COUNT
+     * entries idle long enough, scanning the group's pending list from start, and returns the ID to
+     * continue from, the claimed entries and the IDs dropped because their entries were deleted.
+     */
+    private RedisResponse handleXAutoClaim(byte[][] args) {
+
+        Key streamName = new Key(args[1]);
+        Key groupName = new Key(args[2]);
+        Key consumerName = new Key(args[3]);
+        long minIdle;
+        StreamId start;
+        try {
+            minIdle = Math.max(Helper.parseLong(args[4]), 0);
+        } catch (NumberFormatException e) {
+            return new ErrorResponse("ERR Invalid min-idle-time argument for XAUTOCLAIM");
+        }
+        try {
+            start = parseId(args[5], false);
+        } catch (NumberFormatException e) {
+            return new ErrorResponse("ERR Invalid stream ID specified as stream command argument");
+        }
+        long count = 100;
+        boolean justId = false;
+        for (int i = 6; i < args.length; i++) {
+            if (Helper.equalsIgnoreCase(args[i], "count") && i + 1 < args.length) {
+                try {
+                    count = Helper.parseLong(args[++i]);
+                } catch (NumberFormatException e) {
+                    return new ErrorResponse("ERR value is not an integer or out of range");
+                }
+                if (count < 1 || count > Integer.MAX_VALUE / 10) {
+                    return new ErrorResponse("ERR COUNT must be > 0");
+                }
+            } else if (Helper.equalsIgnoreCase(args[i], "justid")) {
+                justId = true;
+            } else {
+                return new ErrorResponse("ERR syntax error");
+            }
+        }
+
+        ConsumerGroup group = StreamStorage.group(streamName, groupName);
+        if (group == null) {
+            return new ErrorResponse("NOGROUP No such key '" + streamName + "' or consumer group '" + groupName + "'");
+        }
+        int limit = (int) count;
+        boolean idsOnly = justId;
+        StreamId[] next = new StreamId[1];
+        List<StreamId> deleted = new ArrayList<>();
+        List<StreamEntry> claimed = StreamStorage.update(streamName, false, stream -> {
+            long now = Clock.millis();
+            ConsumerGroup.Consumer consumer = group.seen(consumerName, now);
+            // Bounded like SCAN so a long list of busy entries cannot stall the stripe.
+            ConsumerGroup.Claim claim = group.autoClaim(stream, consumer, start, minIdle, limit, limit * 10L, now, idsOnly);
+            next[0] = claim.next();
+            deleted.addAll(claim.deleted());
+            return claimedEntries(stream, streamName, group, claim);
+        });
+
+        SimpleResponse entries = justId
+                ? new BulkStringArrayResponse(claimed.stream().map(entry -> entry.id().toString()).toList())
+                : new XRangeResponse(claimed);
+        return new BulkArrayResponse(List.of(new TextResponse(next[0].toString()), entries,
+                new BulkStringArrayResponse(deleted.stream().map(StreamId::toString).toList())));
+    }
+
+    // Replicates a claim and returns the claimed entries.
+    private static List<StreamEntry> claimedEntries(Stream stream, Key streamName, ConsumerGroup group,
+                                                    ConsumerGroup.Claim claim) {
+
+        List<StreamEntry> entries = new ArrayList<>();
+        for (ConsumerGroup.Pending entry : claim.claimed()) {
+            propagateClaim(streamName, group, entry);
+            entries.add(stream.entry(entry.id()));
+        }
+        if (!claim.deleted().isEmpty()) {
+            byte[][] ack = new byte[3 + claim.deleted().size()][];
+            ack[0] = ascii("XACK");
+            ack[1] = streamName.bytes();
+            ack[2] = group.name().bytes();
+            for (int i = 0; i < claim.deleted().size(); i++) {
+                ack[3 + i] = ascii(claim.deleted().get(i).toString());
+            }
+            ReplicationManager.propagateToReplicas(ack);
+        }
+        return entries;
+    }
+
+    // The replica takes the entry over with exactly the owner, time and count it has here.
+    private static void propagateClaim(Key streamName, ConsumerGroup group, ConsumerGroup.Pending entry) {
+
+        ReplicationManager.propagateToReplicas(new byte[][]{
+                ascii("XCLAIM"), streamName.bytes(), group.name().bytes(), entry.owner().name().bytes(), ascii("0"),
+                ascii(entry.id().toString()), ascii("TIME"), ascii(Long.toString(entry.deliveryTime())),
+                ascii("RETRYCOUNT"), ascii(Long.toString(entry.deliveryCount())), ascii("FORCE"), ascii("JUSTID")});
+    }
+
+    /**
+     * A complete ID for the group commands: '-' and '+' are the smallest and largest IDs, and a
+     * missing sequence number is 0, or the largest one for the {@code end} of a range.
+     */
+    private static StreamId parseId(byte[] arg, boolean end) {
+
+        if (arg.length == 1 && arg[0] == '-') {
+            return StreamId.of(0, 0);
+        }
+        if (arg.length == 1 && arg[0] == '+') {
+            return StreamId.of(Long.MAX_VALUE, Long.MAX_VALUE);
+        }
+        String id = text(arg);
+        long[] parts = StreamId.parse(id);
+        if (id.indexOf('*') >= 0 || parts[0] < 0 || parts[1] < -1) {
+            throw new NumberFormatException("Invalid stream ID: " + text(arg));
+        }
+        return StreamId.of(parts[0], parts[1] != -1 ? parts[1] : end ? Long.MAX_VALUE : 0);
+    }
 
-        String key = args[1];
-        String value = Storage.get(key);
+    // Like parseId, but a leading '(' excludes the ID itself.
+    private static StreamId parseRangeBound(byte[] arg, boolean end) {
+
+        if (arg.length < 2 || arg[0] != '(') {
+            return parseId(arg, end);
+        }
+        StreamId id = parseId(Arrays.copyOfRange(arg, 1, arg.length), end);
+        long ms = id.timestamp();
+        long seq = id.sequence();
+        if (!end) {
+            return seq != Long.MAX_VALUE ? StreamId.of(ms, seq + 1) : StreamId.of(ms + 1, 0);
+        }
+        return seq != 0 ? StreamId.of(ms, seq - 1) : StreamId.of(ms - 1, Long.MAX_VALUE);
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private RedisResponse handleType(byte[][] args) {
+
+        Key key = new Key(args[1]);
+        byte[] value = Storage.get(key);
         if (value != null) {
             return new SimpleStringResponse("string");
         }
@@ -214,83 +1193,238 @@ public class CommandDispatcher {
         return new SimpleStringResponse("none");
     }
 
-    private RedisResponse handleWait(String[] args) {
+    private RedisResponse handleMemoryCommand(byte[][] args) {
+
+        if (!Helper.equalsIgnoreCase(args[1], "USAGE")) {
+            return new ErrorResponse("ERR unknown subcommand '" + text(args[1]) + "'");
+        }
+        // SAMPLES is accepted for compatibility; stream estimates always walk every entry.
+        if (args.length != 3 && !(args.length == 5 && Helper.equalsIgnoreCase(args[3], "SAMPLES"))) {
+            return new ErrorResponse("ERR syntax error");
+        }
+
+        Key key = new Key(args[2]);
+        long usage = Storage.memoryUsage(key);
+        if (usage < 0) {
+            usage = StreamStorage.memoryUsage(key);
+        }
+        return usage < 0 ? SimpleResponse.NULL : new IntegerResponse(usage);
+    }
+
+    private RedisResponse handleWait(byte[][] args, ConnectionContext ctx) {
 
-        long expectedReplicas = Long.parseLong(args[1]);
+        long expectedReplicas = Helper.parseLong(args[1]);
         if (expectedReplicas == 0) {
             return new IntegerResponse(0);
         }
-        long expireTime = Long.parseLong(args[2]);
+        long expireTime = Helper.parseLong(args[2]);
 
         ReplicationManager.sendGetAckToReplicas();
 
         long targetOffset = Main.repl_offset.get();
 
-        try {
-            Thread.sleep(expireTime);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+        // Inside EXEC, report the replicas already caught up instead of waiting with the locks held.
+        if (!ctx.isExecutingTransaction()) {
+            try {
+                Thread.sleep(expireTime);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
 
         int acknowledged = ReplicationManager.countReplicasAcknowledged(targetOffset);
 
-        System.out.println("Acknowledged: " + acknowledged);
+        Log.verbose("Acknowledged: {}", acknowledged);
         return new IntegerResponse(acknowledged);
     }
 
-    private RedisResponse handleSetCommand(String[] args) {
+    private RedisResponse handleSetCommand(byte[][] args) {
 
 //        System.out.println("Processing SET command");
-        String key = args[1];
-        String value = args[2];
-        Storage.set(key, value);
+        Key key = new Key(args[1]);
+        byte[] value = args[2];
+
+        long ttlMillis = -1;
+        boolean nx = false;
+        boolean xx = false;
+        for (int i = 3; i < args.length; i++) {
+            if (Helper.equalsIgnoreCase(args[i], "px") && i + 1 < args.length) {
+                ttlMillis = Helper.parseLong(args[++i]);
+            } else if (Helper.equalsIgnoreCase(args[i], "nx")) {
+                nx = true;
+            } else if (Helper.equalsIgnoreCase(args[i], "xx")) {
+                xx = true;
+            }
+        }
 
-        if (args.length >= 5 && args[3].equalsIgnoreCase("px")) {
-            long ttlMillis = Long.parseLong(args[4]);
+        // The key's stripe lock is held, so nothing can create or delete it between the check and the set.
+        if ((nx || xx) && Storage.exists(key) == nx) {
+            return SimpleResponse.NULL;
+        }
+        if (ttlMillis >= 0) {
             Storage.setWithExpiry(key, value, ttlMillis);
+        } else {
+            Storage.set(key, value);
         }
 
-        ReplicationManager.propagateToReplicas(args);
         if (config.isMaster()) {
-            return new SimpleStringResponse("OK");
+            return SimpleResponse.OK;
         }
 
         return null;
     }
 
-    private RedisResponse handleGetCommand(String[] args) {
+    private RedisResponse handleGetCommand(byte[][] args) {
 
-        String value = Storage.get(args[1]);
+        Storage.Pinned value = Storage.pin(new Key(args[1]));
         if (value == null) {
-            return new NullStringResponse();
+            return SimpleResponse.NULL;
         }
-        return new TextResponse(value);
+        return new PinnedResponse(value);
     }
 
-    private RedisResponse handleConfigCommand(String[] args) {
+    private RedisResponse handleConfigCommand(byte[][] args) {
 
-        if (args.length >= 3 && args[1].equalsIgnoreCase("GET")) {
-            String configKey = args[2];
+        if (args.length >= 3 && Helper.equalsIgnoreCase(args[1], "GET")) {
+            String configKey = text(args[2]);
             if (configKey.equals("dir")) {
                 return new BulkStringArrayResponse(List.of(configKey, config.dir()));
             } else if (configKey.equals("dbfilename")) {
                 return new BulkStringArrayResponse(List.of(configKey, config.dbfilename()));
+            } else if (configKey.equals("slowlog-log-slower-than")) {
+                return new BulkStringArrayResponse(List.of(configKey, Long.toString(config.slowlogLogSlowerThan())));
+            } else if (configKey.equals("slowlog-max-len")) {
+                return new BulkStringArrayResponse(List.of(configKey, Integer.toString(config.slowlogMaxLen())));
+            } else if (configKey.equals("maxmemory")) {
+                return new BulkStringArrayResponse(List.of(configKey, Long.toString(config.maxmemory())));
+            } else if (configKey.equals("maxmemory-policy")) {
+                return new BulkStringArrayResponse(List.of(configKey, config.maxmemoryPolicy().configName()));
+            }
+        }
+        if (Helper.equalsIgnoreCase(args[1], "RESETSTAT")) {
+            for (Command command : COMMANDS.all()) {
+                command.stats().reset();
             }
+            return SimpleResponse.OK;
         }
         return new BulkStringArrayResponse(List.of());
     }
 
-    private RedisResponse handleKeyCommand() {
-        return new BulkStringArrayResponse(Storage.keys());
+    /**
+     * SCAN cursor [MATCH pattern] [COUNT n] [TYPE string|stream]. Each call walks whole stripes until
+     * at least COUNT keys have been examined, so the work per call is bounded by COUNT plus one stripe.
+     */
+    private RedisResponse handleScan(byte[][] args) {
+
+        long cursor;
+        try {
+            cursor = Long.parseUnsignedLong(text(args[1]));
+        } catch (NumberFormatException e) {
+            return new ErrorResponse("ERR invalid cursor");
+        }
+
+        byte[] pattern = null;
+        long count = 10;
+        String type = null;
+        for (int i = 2; i < args.length; i += 2) {
+            if (i + 1 == args.length) {
+                return new ErrorResponse("ERR syntax error");
+            }
+            if (Helper.equalsIgnoreCase(args[i], "MATCH")) {
+                pattern = Glob.matchesAll(args[i + 1]) ? null : args[i + 1];
+            } else if (Helper.equalsIgnoreCase(args[i], "COUNT")) {
+                try {
+                    count = Helper.parseLong(args[i + 1]);
+                } catch (NumberFormatException e) {
+                    return new ErrorResponse("ERR value is not an integer or out of range");
+                }
+                if (count < 1) {
+                    return new ErrorResponse("ERR syntax error");
+                }
+            } else if (Helper.equalsIgnoreCase(args[i], "TYPE")) {
+                type = text(args[i + 1]).toLowerCase(Locale.ROOT);
+            } else {
+                return new ErrorResponse("ERR syntax error");
+            }
+        }
+
+        byte[] match = pattern;
+        List<byte[]> keys = new ArrayList<>();
+        long[] examined = new long[1];
+        Consumer<Key> collect = key -> {
+            examined[0]++;
+            if (match == null || Glob.matches(match, key.bytes())) {
+                keys.add(key.bytes());
+            }
+        };
+        // The cursor packs a stripe (low bits) and a reverse-binary bucket cursor within that stripe's
+        // table, which stays valid as the table resizes. A stripe's streams are visited when its walk
+        // starts. Like Redis, a call gives up after examining about count * 10 empty buckets.
+        int stripe = (int) (cursor & (KeyStripes.STRIPES - 1));
+        long bucket = cursor >>> Integer.numberOfTrailingZeros(KeyStripes.STRIPES);
+        long maxSteps = count > Long.MAX_VALUE / 10 ? Long.MAX_VALUE : count * 10;
+        long steps = 0;
+        do {
+            if (bucket == 0 && (type == null || type.equals("stream"))) {
+                StreamStorage.scan(stripe, collect);
+            }
+            bucket = type == null || type.equals("string") ? Storage.scan(stripe, bucket, collect) : 0;
+            if (bucket == 0) {
+                stripe++;
+            }
+            cursor = stripe == KeyStripes.STRIPES ? 0 : bucket << Integer.numberOfTrailingZeros(KeyStripes.STRIPES) | stripe;
+        } while (cursor != 0 && examined[0] < count && ++steps < maxSteps);
+
+        return new BulkArrayResponse(List.of(new TextResponse(Long.toUnsignedString(cursor)), new BinaryArrayResponse(keys)));
+    }
+
+    private RedisResponse handleKeyCommand(byte[][] args) {
+
+        byte[] pattern = Glob.matchesAll(args[1]) ? null : args[1];
+        // Every match starts with the pattern's literal prefix, so only keys under it are visited.
+        byte[] prefix = pattern == null ? new byte[0] : Glob.literalPrefix(pattern);
+        List<byte[]> keys = new ArrayList<>();
+        Consumer<Key> collect = key -> {
+            if (pattern == null || Glob.matches(pattern, key.bytes())) {
+                keys.add(key.bytes());
+            }
+        };
+        Storage.keys(prefix, collect);
+        StreamStorage.keys(prefix, collect);
+        return new BinaryArrayResponse(keys);
     }
 
-    private RedisResponse handleInfoCommand(String[] args) {
+    private RedisResponse handleInfoCommand(byte[][] args) {
+
+        if (args.length < 2) {
+            return new TextResponse(replicationInfo());
+        }
 
-        if (args.length < 2 || !args[1].equalsIgnoreCase("replication")) {
-            System.out.println("Is it here in handleInfo?");
-            return new SimpleStringResponse("OK");
+        StringBuilder info = new StringBuilder();
+        for (int i = 1; i < args.length; i++) {
+            boolean all = Helper.equalsIgnoreCase(args[i], "all") || Helper.equalsIgnoreCase(args[i], "everything");
+            if (all || Helper.equalsIgnoreCase(args[i], "replication")) {
+                info.append(replicationInfo());
+            }
+            if (all || Helper.equalsIgnoreCase(args[i], "memory")) {
+                appendMemory(info);
+            }
+            if (all || Helper.equalsIgnoreCase(args[i], "stats")) {
+                appendStats(info);
+            }
+            if (all || Helper.equalsIgnoreCase(args[i], "commandstats")) {
+                appendCommandStats(info);
+            }
+            if (all || Helper.equalsIgnoreCase(args[i], "latencystats")) {
+                appendLatencyStats(info);
+            }
         }
-        String replicationInfo = """
+        return new TextResponse(info.toString());
+    }
+
+    private String replicationInfo() {
+
+        return """
             # Replication
             role:%s
             master_replid:%s
@@ -300,42 +1434,243 @@ public class CommandDispatcher {
                 Main.MASTER_REPL_ID,
                 0
         );
-        return new TextResponse(replicationInfo);
     }
 
-    private RedisResponse handleReplConf(String[] args, long ack) {
+    private void appendMemory(StringBuilder info) {
+
+        Runtime runtime = Runtime.getRuntime();
+        long used = Eviction.usedMemory();
+        info.append("# Memory\r\n")
+                .append("used_memory:").append(used).append("\r\n")
+                .append("used_memory_human:").append(humanBytes(used)).append("\r\n")
+                .append("used_memory_heap:").append(runtime.totalMemory() - runtime.freeMemory()).append("\r\n")
+                .append("max_memory_heap:").append(runtime.maxMemory()).append("\r\n")
+                .append("used_memory_offheap:").append(Slabs.usedBytes()).append("\r\n")
+                .append("offheap_reserved:").append(Slabs.reservedBytes()).append("\r\n")
+                .append("maxmemory:").append(config.maxmemory()).append("\r\n")
+                .append("maxmemory_human:").append(humanBytes(config.maxmemory())).append("\r\n")
+                .append("maxmemory_policy:").append(config.maxmemoryPolicy().configName()).append("\r\n")
+                .append("evicted_keys:").append(Eviction.evictedKeys()).append("\r\n");
+    }
+
+    private static String humanBytes(long bytes) {
+
+        String[] units = {"B", "K", "M", "G", "T"};
+        double value = bytes;
+        int unit = 0;
+        while (value >= 1024 && unit < units.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return unit == 0 ? bytes + "B" : String.format(Locale.ROOT, "%.2f%s", value, units[unit]);
+    }
+
+    private static void appendStats(StringBuilder info) {
+
+        info.append("# Stats\r\n")
+                .append("expired_keys:").append(ExpiryWheel.expiredKeys()).append("\r\n")
+                .append("evicted_keys:").append(Eviction.evictedKeys()).append("\r\n")
+                .append("expires_pending:").append(Storage.keysWithTtl()).append("\r\n");
+    }
+
+    private static void appendCommandStats(StringBuilder info) {
+
+        info.append("# Commandstats\r\n");
+        for (Command command : COMMANDS.all()) {
+            CommandStats stats = command.stats();
+            long calls = stats.calls();
+            if (calls == 0 && stats.rejectedCalls() == 0) {
+                continue;
+            }
+            long micros = stats.micros();
+            info.append("cmdstat_").append(command.name())
+                    .append(":calls=").append(calls)
+                    .append(",usec=").append(micros)
+                    .append(",usec_per_call=").append(String.format(Locale.ROOT, "%.2f", calls == 0 ? 0.0 : (double) micros / calls))
+                    .append(",rejected_calls=").append(stats.rejectedCalls())
+                    .append(",failed_calls=").append(stats.failedCalls())
+                    .append("\r\n");
+        }
+    }
+
+    private static void appendLatencyStats(StringBuilder info) {
+
+        info.append("# Latencystats\r\n");
+        for (Command command : COMMANDS.all()) {
+            if (command.stats().calls() == 0) {
+                continue;
+            }
+            LatencyHistogram histogram = command.stats().histogram();
+            info.append("latency_percentiles_usec_").append(command.name())
+                    .append(":p50=").append(micros(histogram.percentile(50)))
+                    .append(",p99=").append(micros(histogram.percentile(99)))
+                    .append(",p99.9=").append(micros(histogram.percentile(99.9)))
+                    .append("\r\n");
+        }
+    }
+
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1000.0);
+    }
+
+    private RedisResponse handleSlowlogCommand(byte[][] args) {
+
+        if (Helper.equalsIgnoreCase(args[1], "LEN")) {
+            return new IntegerResponse(SlowLog.length());
+        }
+        if (Helper.equalsIgnoreCase(args[1], "RESET")) {
+            SlowLog.reset();
+            return SimpleResponse.OK;
+        }
+        if (!Helper.equalsIgnoreCase(args[1], "GET")) {
+            return new ErrorResponse("ERR unknown subcommand '" + text(args[1]) + "'");
+        }
+
+        int count = 10;
+        if (args.length > 2) {
+            try {
+                long requested = Helper.parseLong(args[2]);
+                count = requested < 0 ? Integer.MAX_VALUE : (int) Math.min(requested, Integer.MAX_VALUE);
+            } catch (NumberFormatException e) {
+                return new ErrorResponse("ERR value is not an integer or out of range");
+            }
+        }
+
+        List<SimpleResponse> entries = new ArrayList<>();
+        for (SlowLog.Entry entry : SlowLog.get(count)) {
+            entries.add(new BulkArrayResponse(List.of(
+                    new IntegerResponse(entry.id()),
+                    new IntegerResponse(entry.timestampSeconds()),
+                    new IntegerResponse(entry.durationMicros()),
+                    new BinaryArrayResponse(Arrays.asList(entry.args())),
+                    new TextResponse(entry.clientAddress()),
+                    new TextResponse("")
+            )));
+        }
+        return new BulkArrayResponse(entries);
+    }
+
+    private RedisResponse handleLatencyCommand(byte[][] args) {
+
+        if (!Helper.equalsIgnoreCase(args[1], "HISTOGRAM")) {
+            return new ErrorResponse("ERR unknown subcommand '" + text(args[1]) + "'");
+        }
+
+        List<Command> commands = new ArrayList<>();
+        if (args.length == 2) {
+            for (Command command : COMMANDS.all()) {
+                if (command.stats().calls() > 0) {
+                    commands.add(command);
+                }
+            }
+        } else {
+            for (int i = 2; i < args.length; i++) {
+                Command command = lookup(args[i]);
+                if (command != null && !commands.contains(command)) {
+                    commands.add(command);
+                }
+            }
+        }
+
+        List<SimpleResponse> reply = new ArrayList<>();
+        for (Command command : commands) {
+            long[] cumulative = command.stats().histogram().cumulativeMicrosPowersOfTwo();
+            List<SimpleResponse> buckets = new ArrayList<>();
+            for (int i = 0; i < cumulative.length; i++) {
+                buckets.add(new IntegerResponse(1L << i));
+                buckets.add(new IntegerResponse(cumulative[i]));
+            }
+            reply.add(new TextResponse(command.name()));
+            reply.add(new BulkArrayResponse(List.of(
+                    new TextResponse("calls"),
+                    new IntegerResponse(command.stats().calls()),
+                    new TextResponse("histogram_usec"),
+                    new BulkArrayResponse(buckets)
+            )));
+        }
+        return new BulkArrayResponse(reply);
+    }
+
+    private RedisResponse handleReplConf(byte[][] args, long ack) {
 
-        if (args.length == 3 && args[1].equals("GETACK") && args[2].equals("*")) {
+        if (args.length == 3 && Helper.equalsIgnoreCase(args[1], "GETACK") && Helper.equalsIgnoreCase(args[2], "*")) {
             return new BulkStringArrayResponse(List.of("REPLCONF", "ACK", Long.toString(ack)));
         }
 
-        return new SimpleStringResponse("OK");
+        return SimpleResponse.OK;
     }
 
     private RedisResponse handlePSync() {
         return new RDBSyncResponse("+FULLRESYNC " + Main.MASTER_REPL_ID + " " + 0 + "\r\n", Storage.dumpRDB());
     }
 
-    private RedisResponse unknownCommand(String cmd) {
-        return new ErrorResponse("ERR unknown command '" + cmd.toUpperCase());
+    private RedisResponse handleCommandCommand(byte[][] args) {
+
+        if (args.length == 1) {
+            List<SimpleResponse> infos = new ArrayList<>();
+            for (Command command : COMMANDS.all()) {
+                infos.add(commandInfo(command));
+            }
+            return new BulkArrayResponse(infos);
+        }
+
+        if (Helper.equalsIgnoreCase(args[1], "COUNT")) {
+            return new IntegerResponse(COMMANDS.all().size());
+        }
+        if (Helper.equalsIgnoreCase(args[1], "INFO")) {
+            List<SimpleResponse> infos = new ArrayList<>();
+            for (int i = 2; i < args.length; i++) {
+                Command command = lookup(args[i]);
+                infos.add(command == null ? new ConstantResponse(RespBuffer.NULL_ARRAY) : commandInfo(command));
+            }
+            return new BulkArrayResponse(infos);
+        }
+        if (Helper.equalsIgnoreCase(args[1], "DOCS")) {
+            return new BulkArrayResponse(List.of());
+        }
+        return new ErrorResponse("ERR unknown subcommand '" + text(args[1]) + "'");
+    }
+
+    private static SimpleResponse commandInfo(Command command) {
+
+        List<SimpleResponse> flags = new ArrayList<>();
+        for (String flag : command.flagNames()) {
+            flags.add(new SimpleStringResponse(flag));
+        }
+        return new BulkArrayResponse(List.of(
+                new TextResponse(command.name()),
+                new IntegerResponse(command.arity()),
+                new BulkArrayResponse(flags),
+                new IntegerResponse(command.firstKey()),
+                new IntegerResponse(command.lastKey()),
+                new IntegerResponse(command.step())
+        ));
+    }
+
+    private static RedisResponse unknownCommand(byte[] cmd) {
+        return new ErrorResponse("ERR unknown command '" + text(cmd) + "'");
+    }
+
+    private static String text(byte[] arg) {
+        return new String(arg, StandardCharsets.UTF_8);
     }
 
-    public void handleReplicaHandshakeCommand(String[] args, ConnectionContext context) throws IOException {
+    public void handleReplicaHandshakeCommand(Command command, byte[][] args, ConnectionContext context) throws IOException {
 
-        String command = args[0].toUpperCase();
-        switch (command) {
-            case "PING" -> context.writeLine("+PONG");
-            case "REPLCONF" -> {
-                if (args.length == 3 && args[1].equals("ACK")) {
-                    long offset = Long.parseLong(args[2]);
+        long start = System.nanoTime();
+        switch (command.name()) {
+            case "ping" -> context.writeResponse(SimpleResponse.PONG);
+            case "replconf" -> {
+                if (args.length == 3 && Helper.equalsIgnoreCase(args[1], "ACK")) {
+                    long offset = Helper.parseLong(args[2]);
                     context.setAcknowledgedOffset(offset);
-                    System.out.println("Replica " + context.getSocket().getRemoteSocketAddress()
-                            + " acknowledged offset: " + offset);
+                    Log.verbose("Replica {} acknowledged offset: {}", context.getRemoteAddress(), offset);
                 } else {
-                    context.writeLine("+OK");
+                    context.writeResponse(SimpleResponse.OK);
                 }
             }
-            case "PSYNC", "SYNC" -> new ReplicaHandshakeHandler(config).handleNewReplica(context);
+            case "psync", "sync" -> new ReplicaHandshakeHandler(config).handleNewReplica(context);
         }
+        command.stats().record(System.nanoTime() - start, false);
     }
 }
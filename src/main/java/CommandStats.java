@@ -0,0 +1,56 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Call counters and latency histogram for one command, updated from the dispatch path without locks.
+ */
+public final class CommandStats {
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final LongAdder rejectedCalls = new LongAdder();
+    private final LongAdder failedCalls = new LongAdder();
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    public void record(long elapsedNanos, boolean failed) {
+
+        calls.increment();
+        nanos.add(elapsedNanos);
+        histogram.record(elapsedNanos);
+        if (failed) {
+            failedCalls.increment();
+        }
+    }
+
+    public void recordRejected() {
+        rejectedCalls.increment();
+    }
+
+    public long calls() {
+        return calls.sum();
+    }
+
+    public long micros() {
+        return nanos.sum() / 1000;
+    }
+
+    public long rejectedCalls() {
+        return rejectedCalls.sum();
+    }
+
+    public long failedCalls() {
+        return failedCalls.sum();
+    }
+
+    public LatencyHistogram histogram() {
+        return histogram;
+    }
+
+    public void reset() {
+
+        calls.reset();
+        nanos.reset();
+        rejectedCalls.reset();
+        failedCalls.reset();
+        histogram.reset();
+    }
+}
@@ -0,0 +1,65 @@
+import java.util.List;
+
+/**
+ * Immutable open-addressing table of {@link Command}s. Lookup hashes the raw name bytes with ASCII
+ * case folding and compares in place, so resolving a command allocates nothing.
+ */
+public final class CommandTable {
+
+    private final Command[] slots;
+    private final List<Command> commands;
+
+    public CommandTable(List<Command> commands) {
+
+        this.commands = List.copyOf(commands);
+        this.slots = new Command[Integer.highestOneBit(Math.max(commands.size(), 1) * 4)];
+
+        for (Command command : commands) {
+            int mask = slots.length - 1;
+            int i = hash(command.name()) & mask;
+            while (slots[i] != null) {
+                if (slots[i].name().equals(command.name())) {
+                    throw new IllegalArgumentException("Duplicate command: " + command.name());
+                }
+                i = (i + 1) & mask;
+            }
+            slots[i] = command;
+        }
+    }
+
+    public Command lookup(byte[] name) {
+
+        int mask = slots.length - 1;
+        int i = hash(name) & mask;
+        Command command;
+        while ((command = slots[i]) != null) {
+            if (Helper.equalsIgnoreCase(name, command.name())) {
+                return command;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    public List<Command> all() {
+        return commands;
+    }
+
+    private static int hash(byte[] name) {
+
+        int h = 0;
+        for (byte b : name) {
+            h = 31 * h + (b | 0x20);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static int hash(String name) {
+
+        int h = 0;
+        for (int i = 0; i < name.length(); i++) {
+            h = 31 * h + (name.charAt(i) | 0x20);
+        }
+        return h ^ (h >>> 16);
+    }
+}
@@ -1,4 +1,5 @@
 import java.io.File;
+import java.util.Locale;
 
 public record Config(
         boolean isMaster,
@@ -7,7 +8,18 @@ public record Config(
         int masterPort,
         String dir,
         String dbfilename,
-        File rdbFile
+        File rdbFile,
+        String ioMode,
+        int ioThreads,
+        String unixSocket,
+        long slowlogLogSlowerThan,
+        int slowlogMaxLen,
+        Log.Level logLevel,
+        int shards,
+        long maxmemory,
+        Eviction.Policy maxmemoryPolicy,
+        String storageEngine,
+        boolean prefixIndex
 ) {
     public static Config fromArgs(String[] args) {
 
@@ -16,6 +28,17 @@ public record Config(
         int masterPort = 6379;
         String dir = ".";
         String dbfilename = "dump.rdb";
+        String ioMode = "threads";
+        int ioThreads = Runtime.getRuntime().availableProcessors();
+        String unixSocket = null;
+        long slowlogLogSlowerThan = 10_000;
+        int slowlogMaxLen = 128;
+        Log.Level logLevel = Log.Level.NOTICE;
+        int shards = 0;
+        long maxmemory = 0;
+        Eviction.Policy maxmemoryPolicy = Eviction.Policy.NOEVICTION;
+        String storageEngine = "heap";
+        String prefixIndex = "no";
 
         int port = 6379;
         for (int i = 0; i < args.length; i++) {
@@ -28,9 +51,39 @@ public record Config(
                 }
                 case "--dir" -> dir = args[++i];
                 case "--dbfilename" -> dbfilename = args[++i];
+                case "--io-mode" -> ioMode = args[++i];
+                case "--io-threads" -> ioThreads = Integer.parseInt(args[++i]);
+                case "--unixsocket" -> unixSocket = args[++i];
+                case "--slowlog-log-slower-than" -> slowlogLogSlowerThan = Long.parseLong(args[++i]);
+                case "--slowlog-max-len" -> slowlogMaxLen = Integer.parseInt(args[++i]);
+                case "--loglevel" -> logLevel = Log.Level.parse(args[++i]);
+                case "--shards" -> shards = Integer.parseInt(args[++i]);
+                case "--maxmemory" -> maxmemory = parseMemory(args[++i]);
+                case "--maxmemory-policy" -> maxmemoryPolicy = Eviction.Policy.parse(args[++i]);
+                case "--storage-engine" -> storageEngine = args[++i];
+                case "--prefix-index" -> prefixIndex = args[++i];
             }
         }
 
+        if (!ioMode.equals("threads") && !ioMode.equals("nio")) {
+            throw new IllegalArgumentException("Unknown --io-mode: " + ioMode + " (expected threads or nio)");
+        }
+        if (!storageEngine.equals("heap") && !storageEngine.equals("offheap")) {
+            throw new IllegalArgumentException("Unknown --storage-engine: " + storageEngine + " (expected heap or offheap)");
+        }
+        if (!prefixIndex.equals("yes") && !prefixIndex.equals("no")) {
+            throw new IllegalArgumentException("Unknown --prefix-index: " + prefixIndex + " (expected yes or no)");
+        }
+        if (ioThreads < 1) {
+            throw new IllegalArgumentException("--io-threads must be at least 1");
+        }
+        if (maxmemory < 0) {
+            throw new IllegalArgumentException("--maxmemory must not be negative");
+        }
+        if (slowlogMaxLen < 1) {
+            throw new IllegalArgumentException("--slowlog-max-len must be at least 1");
+        }
+
         boolean isMaster = (masterHost == null);
         if (isMaster) {
             masterPort = port;
@@ -39,10 +92,36 @@ public record Config(
         }
 
         File rdbFile = new File(dir + "/" + dbfilename);
-        return new Config(isMaster, replicaPort, masterHost, masterPort, dir, dbfilename, rdbFile);
+        return new Config(isMaster, replicaPort, masterHost, masterPort, dir, dbfilename, rdbFile, ioMode, ioThreads, unixSocket,
+                slowlogLogSlowerThan, slowlogMaxLen, logLevel, shards, maxmemory, maxmemoryPolicy, storageEngine,
+                prefixIndex.equals("yes"));
+    }
+
+    /**
+     * Parses a byte count with an optional Redis unit suffix: k/m/g are powers of 1000, kb/mb/gb of 1024.
+     */
+    static long parseMemory(String value) {
+
+        String lower = value.toLowerCase(Locale.ROOT);
+        String[] units = {"kb", "mb", "gb", "k", "m", "g", "b"};
+        long[] multipliers = {1L << 10, 1L << 20, 1L << 30, 1_000, 1_000_000, 1_000_000_000, 1};
+        for (int i = 0; i < units.length; i++) {
+            if (lower.endsWith(units[i])) {
+                return Long.parseLong(lower.substring(0, lower.length() - units[i].length())) * multipliers[i];
+            }
+        }
+        return Long.parseLong(lower);
     }
 
     public int getPort() {
         return isMaster ? masterPort : replicaPort;
     }
-}
\ No newline at end of file
+
+    public boolean isEventLoopMode() {
+        return ioMode.equals("nio");
+    }
+
+    public boolean isOffHeap() {
+        return storageEngine.equals("offheap");
+    }
+}
@@ -1,47 +1,158 @@
 import java.io.BufferedInputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class ConnectionContext implements Closeable {
 
-    private final Socket socket;
+    private final Closeable connection;
+    private final SocketAddress remoteAddress;
     private final BufferedInputStream input;
-    private final OutputStream output;
+    private final OutputStream socketOutput;
+    private final Runnable channelFlush;
+    private final RespBuffer out = new RespBuffer();
+    private final ReentrantLock outputLock = new ReentrantLock();
+    private final OutputStream output = new RawOutput();
+    private int drained;
+    private volatile boolean closed;
     private volatile long acknowledgedOffset = 0;
-    private final Queue<String[]> transactionCommands = new LinkedList<>();
+    private final Queue<byte[][]> transactionCommands = new LinkedList<>();
     private boolean isInTransaction;
+    private boolean executingTransaction;
+    // WATCHed key -> its version when first watched. Concurrent because close() may come from
+    // another thread.
+    private final Map<Key, Long> watchedKeys = new ConcurrentHashMap<>();
 
     public ConnectionContext(Socket socket) throws IOException {
-        this.socket = socket;
+        this.connection = socket;
+        this.remoteAddress = socket.getRemoteSocketAddress();
         this.input = new BufferedInputStream(socket.getInputStream());
-        this.output = socket.getOutputStream();
+        this.socketOutput = socket.getOutputStream();
+        this.channelFlush = null;
+    }
+
+    /**
+     * Context for a blocking channel served by its own thread, such as a Unix domain socket
+     * connection, which has no {@link Socket} adaptor.
+     */
+    public ConnectionContext(SocketChannel channel) throws IOException {
+        this.connection = channel;
+        this.remoteAddress = channel.getRemoteAddress();
+        this.input = new BufferedInputStream(new ChannelInput(channel));
+        this.socketOutput = new ChannelOutput(channel);
+        this.channelFlush = null;
+    }
+
+    /**
+     * Context for a non-blocking channel owned by a {@link Reactor}. There is no input stream:
+     * the reactor feeds parsed commands in, and {@code channelFlush} asks it to drain the output buffer.
+     */
+    public ConnectionContext(SocketChannel channel, Runnable channelFlush) throws IOException {
+        this.connection = channel;
+        this.remoteAddress = channel.getRemoteAddress();
+        this.input = null;
+        this.socketOutput = null;
+        this.channelFlush = channelFlush;
     }
 
     public BufferedInputStream getInput() {
         return input;
     }
 
+    /**
+     * Raw view of the per-connection output buffer, for replication traffic and RDB transfers.
+     */
     public OutputStream getOutput() {
         return output;
     }
 
-    public Socket getSocket() {
-        return socket;
+    /**
+     * Encodes a reply straight into the pooled per-connection buffer. Nothing reaches the socket until
+     * {@link #flush()}, which the connection loop calls once its input has no complete command left.
+     */
+    public void writeResponse(SimpleResponse response) {
+
+        outputLock.lock();
+        try {
+            response.writeTo(out);
+        } finally {
+            outputLock.unlock();
+        }
+    }
+
+    public int pendingOutput() {
+        return out.size();
+    }
+
+    public void flush() throws IOException {
+
+        if (channelFlush != null) {
+            channelFlush.run();
+            return;
+        }
+
+        outputLock.lock();
+        try {
+            if (out.size() > 0) {
+                socketOutput.write(out.array(), 0, out.size());
+                out.reset();
+            }
+        } finally {
+            outputLock.unlock();
+        }
+    }
+
+    /**
+     * Writes as much buffered output to a non-blocking channel as it accepts.
+     * Returns {@code true} once the buffer is fully drained.
+     */
+    boolean drainTo(SocketChannel channel) throws IOException {
+
+        outputLock.lock();
+        try {
+            if (out.size() > drained) {
+                ByteBuffer pending = ByteBuffer.wrap(out.array(), drained, out.size() - drained);
+                channel.write(pending);
+                drained = pending.position();
+            }
+            if (drained < out.size()) {
+                return false;
+            }
+            out.reset();
+            drained = 0;
+            return true;
+        } finally {
+            outputLock.unlock();
+        }
+    }
+
+    public SocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    public boolean isClosed() {
+        return closed;
     }
 
     public void writeLine(String line) throws IOException {
         output.write((line + "\r\n").getBytes(StandardCharsets.UTF_8));
-        output.flush();
+        flush();
     }
 
-    public void write(String line) throws IOException {
-        output.write(line.getBytes(StandardCharsets.UTF_8));
-        output.flush();
+    public void write(byte[] bytes) throws IOException {
+        output.write(bytes);
+        flush();
     }
 
     public long getAcknowledgedOffset() {
@@ -54,7 +165,9 @@ public class ConnectionContext implements Closeable {
 
     @Override
     public void close() throws IOException {
-        socket.close();
+        closed = true;
+        clearWatches();
+        connection.close();
     }
 
     public void startTransaction() {
@@ -65,11 +178,11 @@ public class ConnectionContext implements Closeable {
         return isInTransaction;
     }
 
-    public void queueTransactionCommand(String[] command) {
+    public void queueTransactionCommand(byte[][] command) {
         transactionCommands.offer(command);
     }
 
-    public String[] dequeueTransactionCommand() {
+    public byte[][] dequeueTransactionCommand() {
         return transactionCommands.poll();
     }
 
@@ -77,6 +190,18 @@ public class ConnectionContext implements Closeable {
         isInTransaction = false;
     }
 
+    /**
+     * Marks EXEC running the queued commands. Blocking commands then answer at once, as in Redis,
+     * since EXEC holds its stripe locks throughout.
+     */
+    public void setExecutingTransaction(boolean executing) {
+        executingTransaction = executing;
+    }
+
+    public boolean isExecutingTransaction() {
+        return executingTransaction;
+    }
+
     public boolean isTransactionCommandsEmpty() {
         return transactionCommands.isEmpty();
     }
@@ -88,4 +213,92 @@ public class ConnectionContext implements Closeable {
     public void clearTransactionCommands() {
         transactionCommands.clear();
     }
-}
\ No newline at end of file
+
+    public void watch(Key key) {
+
+        if (!watchedKeys.containsKey(key)) {
+            watchedKeys.put(key, KeyStripes.watch(key));
+        }
+    }
+
+    public Map<Key, Long> getWatchedKeys() {
+        return watchedKeys;
+    }
+
+    public void clearWatches() {
+
+        for (Key key : watchedKeys.keySet()) {
+            if (watchedKeys.remove(key) != null) {
+                KeyStripes.unwatch(key);
+            }
+        }
+    }
+
+    private class RawOutput extends OutputStream {
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+
+            outputLock.lock();
+            try {
+                out.writeRaw(b, off, len);
+            } finally {
+                outputLock.unlock();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            ConnectionContext.this.flush();
+        }
+    }
+
+    // Channels.newInputStream/newOutputStream serialize reads and writes on the channel's
+    // blocking lock, which would stall replication writes behind a parked read.
+    private static class ChannelInput extends InputStream {
+
+        private final SocketChannel channel;
+
+        ChannelInput(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return len == 0 ? 0 : channel.read(ByteBuffer.wrap(b, off, len));
+        }
+    }
+
+    private static class ChannelOutput extends OutputStream {
+
+        private final SocketChannel channel;
+
+        ChannelOutput(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,344 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A consumer group on one stream: the last ID handed to any of its consumers and the entries
+ * delivered but not yet acknowledged. Each pending entry sits in two lists ordered by ID, the
+ * group's and its owner's, so XACK, XPENDING ranges and history reads are seeks, not scans.
+ * <p>
+ * Changes are made under the stream key's stripe lock. XPENDING reads without it: both lists are
+ * concurrent maps and a pending entry's owner, delivery time and count are volatile, so a reader
+ * may see an entry halfway through a claim but never a broken list.
+ */
+public class ConsumerGroup {
+
+    // Group object, its consumer map and its pending list.
+    static final int BASE_FOOTPRINT = 48 + 64 + 48;
+    // Consumer object, its pending list and its slot in the consumer map.
+    private static final int CONSUMER_FOOTPRINT = 32 + 48 + 48;
+    // Pending entry, its ID and a skip list node in each of the two lists.
+    private static final int PENDING_FOOTPRINT = 32 + 24 + 2 * 40;
+
+    /**
+     * A delivered, unacknowledged entry. Times are epoch milliseconds.
+     */
+    public static final class Pending {
+
+        private final StreamId id;
+        private volatile Consumer owner;
+        private volatile long deliveryTime;
+        private volatile long deliveryCount;
+
+        private Pending(StreamId id, Consumer owner) {
+            this.id = id;
+            this.owner = owner;
+        }
+
+        public StreamId id() {
+            return id;
+        }
+
+        public Consumer owner() {
+            return owner;
+        }
+
+        public long deliveryTime() {
+            return deliveryTime;
+        }
+
+        public long deliveryCount() {
+            return deliveryCount;
+        }
+
+        public long idle(long now) {
+            return Math.max(now - deliveryTime, 0);
+        }
+    }
+
+    public static final class Consumer {
+
+        private final Key name;
+        private final ConcurrentSkipListMap<StreamId, Pending> pending = new ConcurrentSkipListMap<>();
+        // Kept alongside the list, whose size() is a full walk.
+        private volatile long pendingCount;
+        private volatile long seenTime;
+
+        private Consumer(Key name, long now) {
+            this.name = name;
+            this.seenTime = now;
+        }
+
+        public Key name() {
+            return name;
+        }
+
+        public NavigableMap<StreamId, Pending> pending() {
+            return pending;
+        }
+
+        public long pendingCount() {
+            return pendingCount;
+        }
+
+        public long seenTime() {
+            return seenTime;
+        }
+    }
+
+    /**
+     * Outcome of XCLAIM or XAUTOCLAIM: the entries now owned by the claiming consumer, the pending
+     * IDs dropped because their entries are gone from the stream, and for XAUTOCLAIM the ID to
+     * resume from (0-0 once the whole list was scanned).
+     */
+    public record Claim(List<Pending> claimed, List<StreamId> deleted, StreamId next) {}
+
+    private final Key name;
+    private final ConcurrentSkipListMap<StreamId, Pending> pending = new ConcurrentSkipListMap<>();
+    private final Map<Key, Consumer> consumers = new ConcurrentHashMap<>();
+    private volatile long pendingCount;
+    private volatile StreamId lastDelivered;
+    private volatile long footprint;
+
+    ConsumerGroup(Key name, StreamId lastDelivered) {
+        this.name = name;
+        this.lastDelivered = lastDelivered;
+        this.footprint = BASE_FOOTPRINT + name.bytes().length;
+    }
+
+    public Key name() {
+        return name;
+    }
+
+    public StreamId lastDelivered() {
+        return lastDelivered;
+    }
+
+    public void setLastDelivered(StreamId id) {
+        this.lastDelivered = id;
+    }
+
+    public NavigableMap<StreamId, Pending> pending() {
+        return pending;
+    }
+
+    public long pendingCount() {
+        return pendingCount;
+    }
+
+    public Collection<Consumer> consumers() {
+        return consumers.values();
+    }
+
+    public long footprint() {
+        return footprint;
+    }
+
+    public Consumer consumer(Key consumerName) {
+        return consumers.get(consumerName);
+    }
+
+    /**
+     * The named consumer, created if it does not exist yet, with its seen time set to {@code now}.
+     */
+    public Consumer seen(Key consumerName, long now) {
+
+        Consumer consumer = consumers.get(consumerName);
+        if (consumer == null) {
+            consumer = new Consumer(consumerName, now);
+            consumers.put(consumerName, consumer);
+            footprint += CONSUMER_FOOTPRINT + consumerName.bytes().length;
+        }
+        consumer.seenTime = now;
+        return consumer;
+    }
+
+    /**
+     * Removes the consumer and drops its pending entries from the group; returns how many it had,
+     * or -1 if there was no such consumer.
+     */
+    public long removeConsumer(Key consumerName) {
+
+        Consumer consumer = consumers.remove(consumerName);
+        if (consumer == null) {
+            return -1;
+        }
+        for (StreamId id : consumer.pending.keySet()) {
+            pending.remove(id);
+        }
+        long count = consumer.pendingCount;
+        pendingCount -= count;
+        footprint -= CONSUMER_FOOTPRINT + consumerName.bytes().length + count * PENDING_FOOTPRINT;
+        return count;
+    }
+
+    /**
+     * Delivers up to {@code count} entries after the last delivered ID (all of them if
+     * {@code count} is 0) to {@code consumer}, recording them as pending unless {@code noAck}.
+     */
+    public List<StreamEntry> readNew(Stream stream, Consumer consumer, int count, boolean noAck, long now) {
+
+        List<StreamEntry> entries = stream.readFromExclusive(lastDelivered, count == 0 ? Integer.MAX_VALUE : count);
+        if (entries.isEmpty()) {
+            return entries;
+        }
+        lastDelivered = entries.get(entries.size() - 1).id();
+        if (noAck) {
+            return entries;
+        }
+        for (StreamEntry entry : entries) {
+            // Already pending if XGROUP SETID moved the group back; the entry starts over.
+            Pending delivered = pending.get(entry.id());
+            if (delivered == null) {
+                delivered = add(entry.id(), consumer);
+            } else {
+                moveTo(delivered, consumer);
+            }
+            delivered.deliveryTime = now;
+            delivered.deliveryCount = 1;
+        }
+        return entries;
+    }
+
+    /**
+     * Re-delivers up to {@code count} of {@code consumer}'s pending entries with IDs after
+     * {@code after}. An entry no longer in the stream comes back with null values.
+     */
+    public List<StreamEntry> readHistory(Stream stream, Consumer consumer, StreamId after, int count, long now) {
+
+        List<StreamEntry> entries = new ArrayList<>();
+        for (Pending delivered : consumer.pending.tailMap(after, false).values()) {
+            if (count != 0 && entries.size() == count) {
+                break;
+            }
+            StreamEntry entry = stream.entry(delivered.id);
+            if (entry == null) {
+                entries.add(new StreamEntry(delivered.id, null));
+                continue;
+            }
+            delivered.deliveryTime = now;
+            delivered.deliveryCount++;
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    /**
+     * Removes {@code id} from the pending lists; false if it was not pending.
+     */
+    public boolean acknowledge(StreamId id) {
+
+        Pending acked = pending.remove(id);
+        if (acked == null) {
+            return false;
+        }
+        Consumer owner = acked.owner;
+        owner.pending.remove(id);
+        owner.pendingCount--;
+        pendingCount--;
+        footprint -= PENDING_FOOTPRINT;
+        return true;
+    }
+
+    /**
+     * XCLAIM: hands each pending entry in {@code ids} idle for at least {@code minIdle} to
+     * {@code consumer}, with the given delivery time. The delivery count is set to
+     * {@code retryCount} when that is not negative, else incremented unless {@code justId}.
+     * With {@code force}, IDs not pending but still in the stream are added to the list.
+     */
+    public Claim claim(Stream stream, Consumer consumer, List<StreamId> ids, long minIdle, long now, long deliveryTime,
+                       long retryCount, boolean force, boolean justId) {
+
+        List<Pending> claimed = new ArrayList<>();
+        List<StreamId> deleted = new ArrayList<>();
+        for (StreamId id : ids) {
+            Pending entry = pending.get(id);
+            if (entry == null) {
+                if (!force || stream.entry(id) == null) {
+                    continue;
+                }
+                entry = add(id, consumer);
+            } else {
+                if (stream.entry(id) == null) {
+                    acknowledge(id);
+                    deleted.add(id);
+                    continue;
+                }
+                if (minIdle > 0 && entry.idle(now) < minIdle) {
+                    continue;
+                }
+                moveTo(entry, consumer);
+            }
+            take(entry, deliveryTime, retryCount, justId);
+            claimed.add(entry);
+        }
+        return new Claim(claimed, deleted, null);
+    }
+
+    /**
+     * XAUTOCLAIM: walks the group's pending list from {@code start}, claiming for {@code consumer}
+     * up to {@code count} entries idle for at least {@code minIdle} and dropping those no longer in
+     * the stream. Looks at no more than {@code maxSteps} entries, so one call stays short however
+     * few entries qualify.
+     */
+    public Claim autoClaim(Stream stream, Consumer consumer, StreamId start, long minIdle, int count, long maxSteps,
+                           long now, boolean justId) {
+
+        List<Pending> claimed = new ArrayList<>();
+        List<StreamId> deleted = new ArrayList<>();
+        Iterator<Pending> walk = pending.tailMap(start, true).values().iterator();
+        while (walk.hasNext() && claimed.size() < count && maxSteps-- > 0) {
+            Pending entry = walk.next();
+            if (stream.entry(entry.id) == null) {
+                acknowledge(entry.id);
+                deleted.add(entry.id);
+                continue;
+            }
+            if (entry.idle(now) < minIdle) {
+                continue;
+            }
+            moveTo(entry, consumer);
+            take(entry, now, -1, justId);
+            claimed.add(entry);
+        }
+        return new Claim(claimed, deleted, walk.hasNext() ? walk.next().id : StreamId.of(0, 0));
+    }
+
+    private Pending add(StreamId id, Consumer owner) {
+
+        Pending entry = new Pending(id, owner);
+        pending.put(id, entry);
+        owner.pending.put(id, entry);
+        owner.pendingCount++;
+        pendingCount++;
+        footprint += PENDING_FOOTPRINT;
+        return entry;
+    }
+
+    private static void take(Pending entry, long deliveryTime, long retryCount, boolean justId) {
+
+        entry.deliveryTime = deliveryTime;
+        if (retryCount >= 0) {
+            entry.deliveryCount = retryCount;
+        } else if (!justId) {
+            entry.deliveryCount++;
+        }
+    }
+
+    private static void moveTo(Pending entry, Consumer consumer) {
+
+        Consumer owner = entry.owner;
+        if (owner != consumer) {
+            consumer.pending.put(entry.id, entry);
+            consumer.pendingCount++;
+            entry.owner = consumer;
+            owner.pending.remove(entry.id);
+            owner.pendingCount--;
+        }
+    }
+}
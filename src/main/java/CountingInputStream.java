@@ -1,43 +0,0 @@
-import java.io.FilterInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-
-public class CountingInputStream extends FilterInputStream {
-
-    private long count;
-    /**
-     * Creates a {@code FilterInputStream}
-     * by assigning the  argument {@code in}
-     * to the field {@code this.in} so as
-     * to remember it for later use.
-     *
-     * @param in the underlying input stream, or {@code null} if
-     *           this instance is to be created without an underlying stream.
-     */
-    protected CountingInputStream(InputStream in) {
-        super(in);
-    }
-
-    @Override
-    public int read(byte[] b, int off, int len) throws IOException {
-        int result = super.read(b, off, len);
-        if (result != -1) {
-            count += result;
-        }
-        return result;
-    }
-
-    @Override
-    public int read() throws IOException {
-        int result = super.read();
-        if (result != -1) {
-            count++;
-        }
-        return result;
-    }
-
-    public long getCount() {
-        return count;
-    }
-
-}
@@ -0,0 +1,448 @@
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * Open-addressing hash table for one keyspace stripe. Slots (a mixed hash in one array, key and
+ * value adjacent in another) are probed linearly, so a key costs 16 to 32 bytes of table at the
+ * 3/8 to 3/4 load kept here, against a ~32 byte node plus slot in a ConcurrentHashMap. Growing,
+ * shrinking and tombstone cleanup move entries into the new table a few slots per write, so no
+ * single write pays for a full copy; lookups check both tables meanwhile.
+ * <p>
+ * Writers must hold the stripe's lock, so there is one writer at a time. Readers take no lock: a
+ * sequence counter, odd while a write is in progress, tells them to retry a read that overlapped a
+ * write. Entries never move within a table (deletes leave tombstones), so probes always terminate.
+ * <p>
+ * {@link #scan} walks home buckets with Redis's reverse-binary cursor, which stays valid across
+ * resizes; {@link #sample} reads a run of slots from a random position, for eviction.
+ */
+final class Dict<V> {
+
+    private static final int MIN_CAPACITY = 8;
+    private static final int REHASH_SLOTS_PER_WRITE = 32;
+    private static final Key TOMBSTONE = new Key(new byte[0]);
+
+    private static final class Table {
+        final int[] hashes;
+        // Key and value of a slot side by side, so a hit usually costs one cache line here.
+        final Object[] entries;
+        final int mask;
+        // Writer-only: live entries, and live entries plus tombstones.
+        int live;
+        int used;
+
+        Table(int capacity) {
+            this.hashes = new int[capacity];
+            this.entries = new Object[capacity * 2];
+            this.mask = capacity - 1;
+        }
+
+        Key key(int slot) {
+            return (Key) entries[slot << 1];
+        }
+
+        Object value(int slot) {
+            return entries[(slot << 1) + 1];
+        }
+
+        void setKey(int slot, Key key) {
+            entries[slot << 1] = key;
+        }
+
+        void setValue(int slot, Object value) {
+            entries[(slot << 1) + 1] = value;
+        }
+    }
+
+    private volatile int seq;
+    private Table table = new Table(MIN_CAPACITY);
+    // The previous table while a rehash is in progress, drained from drainIndex upwards.
+    private Table draining;
+    private int drainIndex;
+    private volatile int size;
+    private volatile int shrinks;
+
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Key key) {
+
+        int hash = mix(key.hashCode());
+        while (true) {
+            int s = seq;
+            if ((s & 1) == 0) {
+                Object value = valueOf(draining, key, hash);
+                if (value == null) {
+                    value = valueOf(table, key, hash);
+                }
+                VarHandle.acquireFence();
+                if (seq == s) {
+                    return (V) value;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Stores {@code value} under {@code key} and returns the previous value. Caller holds the lock.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(Key key, V value) {
+
+        int hash = mix(key.hashCode());
+        beginWrite();
+        try {
+            rehashStep();
+            Table t = draining;
+            int slot = slotOf(t, key, hash);
+            if (slot < 0) {
+                t = table;
+                slot = slotOf(t, key, hash);
+            }
+            if (slot >= 0) {
+                Object old = t.value(slot);
+                t.setValue(slot, value);
+                return (V) old;
+            }
+            ensureCapacity();
+            insert(table, key, hash, value);
+            size++;
+            return null;
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Replaces the value with {@code fn(key, current)}, removing the key when it returns null.
+     * {@code fn} runs before anything is modified, so if it throws the table is unchanged. Returning
+     * the current value itself (after mutating it in place) is not a structural change. Caller holds
+     * the lock.
+     */
+    public V compute(Key key, BiFunction<Key, V, V> fn) {
+
+        V current = get(key);
+        V updated = fn.apply(key, current);
+        if (updated == current) {
+            return updated;
+        }
+        if (updated == null) {
+            remove(key);
+        } else {
+            put(key, updated);
+        }
+        return updated;
+    }
+
+    /**
+     * Removes {@code key} and returns its value, or null. Caller holds the lock.
+     */
+    public V remove(Key key) {
+        return remove(key, null, false);
+    }
+
+    /**
+     * Removes {@code key} only while it maps to {@code expected}. Caller holds the lock.
+     */
+    public boolean remove(Key key, V expected) {
+        return remove(key, expected, true) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V remove(Key key, V expected, boolean conditional) {
+
+        int hash = mix(key.hashCode());
+        beginWrite();
+        try {
+            rehashStep();
+            Table t = draining;
+            int slot = slotOf(t, key, hash);
+            if (slot < 0) {
+                t = table;
+                slot = slotOf(t, key, hash);
+            }
+            if (slot < 0 || (conditional && t.value(slot) != expected)) {
+                return null;
+            }
+            Object old = t.value(slot);
+            t.setValue(slot, null);
+            t.setKey(slot, TOMBSTONE);
+            t.live--;
+            size--;
+            if (draining == null && table.mask + 1 > MIN_CAPACITY && size * 8 < table.mask + 1) {
+                startRehash(capacityFor(size));
+            }
+            return (V) old;
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * One step of a SCAN walk: hands the entries of one home bucket (and, mid-rehash, the buckets
+     * it splits into in the larger table) to {@code visitor} and returns the next cursor, 0 when the
+     * walk is complete. An entry present for the whole walk is visited at least once; only a shrink
+     * during the walk can visit one twice.
+     */
+    @SuppressWarnings("unchecked")
+    public long scan(long cursor, BiConsumer<Key, V> visitor) {
+
+        List<Object> batch = new ArrayList<>();
+        while (true) {
+            int s = seq;
+            if ((s & 1) == 0) {
+                batch.clear();
+                long next = scanStep(cursor, batch);
+                VarHandle.acquireFence();
+                if (seq == s) {
+                    for (int i = 0; i < batch.size(); i += 2) {
+                        visitor.accept((Key) batch.get(i), (V) batch.get(i + 1));
+                    }
+                    return next;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Visits every entry once, walking buckets as {@link #scan} does, without blocking writers.
+     */
+    public void forEach(BiConsumer<Key, V> visitor) {
+
+        int shrinksBefore = shrinks;
+        List<Key> keys = new ArrayList<>();
+        List<V> values = new ArrayList<>();
+        long cursor = 0;
+        do {
+            cursor = scan(cursor, (key, value) -> {
+                keys.add(key);
+                values.add(value);
+            });
+        } while (cursor != 0);
+
+        Set<Key> seen = shrinks != shrinksBefore ? new HashSet<>() : null;
+        for (int i = 0; i < keys.size(); i++) {
+            if (seen == null || seen.add(keys.get(i))) {
+                visitor.accept(keys.get(i), values.get(i));
+            }
+        }
+    }
+
+    /**
+     * Hands up to {@code count} entries read from a random position to {@code visitor}.
+     */
+    @SuppressWarnings("unchecked")
+    public void sample(int count, BiConsumer<Key, V> visitor) {
+
+        List<Object> batch = new ArrayList<>();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int attempt = 0; attempt < 8; attempt++) {
+            int s = seq;
+            if ((s & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            batch.clear();
+            Table t = draining != null && random.nextBoolean() ? draining : table;
+            int slot = random.nextInt(t.mask + 1);
+            for (int step = 0; step <= t.mask && step < count * 10 && batch.size() < count * 2; step++) {
+                Key key = t.key(slot);
+                if (key != null && key != TOMBSTONE) {
+                    batch.add(key);
+                    batch.add(t.value(slot));
+                }
+                slot = (slot + 1) & t.mask;
+            }
+            VarHandle.acquireFence();
+            if (seq == s) {
+                for (int i = 0; i < batch.size(); i += 2) {
+                    visitor.accept((Key) batch.get(i), (V) batch.get(i + 1));
+                }
+                return;
+            }
+        }
+    }
+
+    private long scanStep(long v, List<Object> batch) {
+
+        Table drainingTable = draining;
+        Table current = table;
+        if (drainingTable == null) {
+            long m0 = current.mask;
+            collectBucket(current, (int) (v & m0), batch);
+            return nextCursor(v, m0);
+        }
+
+        Table small = drainingTable.mask < current.mask ? drainingTable : current;
+        Table large = small == current ? drainingTable : current;
+        long m0 = small.mask;
+        long m1 = large.mask;
+        collectBucket(small, (int) (v & m0), batch);
+        // Then every bucket of the larger table that the smaller bucket expands into.
+        do {
+            collectBucket(large, (int) (v & m1), batch);
+            v = nextCursor(v, m1);
+        } while ((v & (m0 ^ m1)) != 0);
+        return v;
+    }
+
+    // Increments the cursor's bits under mask in reverse order, so growing or shrinking by powers of
+    // two never skips a bucket already due.
+    private static long nextCursor(long v, long mask) {
+
+        v |= ~mask;
+        v = Long.reverse(v);
+        v++;
+        return Long.reverse(v);
+    }
+
+    // Entries whose home slot is bucket sit in the run of occupied slots starting there.
+    private static void collectBucket(Table t, int bucket, List<Object> batch) {
+
+        int slot = bucket;
+        for (int probes = 0; probes <= t.mask; probes++) {
+            Key key = t.key(slot);
+            if (key == null) {
+                return;
+            }
+            if (key != TOMBSTONE && (t.hashes[slot] & t.mask) == bucket) {
+                batch.add(key);
+                batch.add(t.value(slot));
+            }
+            slot = (slot + 1) & t.mask;
+        }
+    }
+
+    private static Object valueOf(Table t, Key key, int hash) {
+
+        int slot = slotOf(t, key, hash);
+        return slot < 0 ? null : t.value(slot);
+    }
+
+    private static int slotOf(Table t, Key key, int hash) {
+
+        if (t == null) {
+            return -1;
+        }
+        int slot = hash & t.mask;
+        for (int probes = 0; probes <= t.mask; probes++) {
+            Key candidate = t.key(slot);
+            if (candidate == null) {
+                return -1;
+            }
+            if (candidate != TOMBSTONE && t.hashes[slot] == hash && candidate.equals(key)) {
+                return slot;
+            }
+            slot = (slot + 1) & t.mask;
+        }
+        return -1;
+    }
+
+    // The key must not be present. Writes the key last so a racing reader never sees it half set.
+    private static void insert(Table t, Key key, int hash, Object value) {
+
+        int slot = hash & t.mask;
+        while (t.key(slot) != null && t.key(slot) != TOMBSTONE) {
+            slot = (slot + 1) & t.mask;
+        }
+        if (t.key(slot) == null) {
+            t.used++;
+        }
+        t.setValue(slot, value);
+        t.hashes[slot] = hash;
+        t.setKey(slot, key);
+        t.live++;
+    }
+
+    // A table being filled during a rehash stays under 3/4 load until the old one is drained (see
+    // startRehash), so there is never a reason to wait for the drain here.
+    private void ensureCapacity() {
+
+        if (draining != null || table.used + 1 <= (table.mask + 1) / 4 * 3) {
+            return;
+        }
+        startRehash(capacityFor(size + 1));
+    }
+
+    private void startRehash(int capacity) {
+
+        // Every write drains REHASH_SLOTS_PER_WRITE slots and adds at most one entry, so leave room
+        // under 3/4 load for the live entries plus one insert per write until the drain finishes.
+        int drainWrites = (table.mask + 1) / REHASH_SLOTS_PER_WRITE + 1;
+        while (capacity / 4 * 3 < table.live + drainWrites) {
+            capacity <<= 1;
+        }
+        if (capacity < table.mask + 1) {
+            shrinks++;
+        }
+        draining = table;
+        drainIndex = 0;
+        table = new Table(capacity);
+        if (draining.live == 0) {
+            draining = null;
+        }
+    }
+
+    private void rehashStep() {
+
+        Table from = draining;
+        if (from == null) {
+            return;
+        }
+        int end = Math.min(drainIndex + REHASH_SLOTS_PER_WRITE, from.mask + 1);
+        for (; drainIndex < end; drainIndex++) {
+            Key key = from.key(drainIndex);
+            if (key != null && key != TOMBSTONE) {
+                insert(table, key, from.hashes[drainIndex], from.value(drainIndex));
+                from.setValue(drainIndex, null);
+                from.setKey(drainIndex, TOMBSTONE);
+                from.live--;
+            }
+        }
+        if (drainIndex > from.mask || from.live == 0) {
+            draining = null;
+        }
+    }
+
+    private void beginWrite() {
+
+        seq++;
+        // Keep the table writes below from becoming visible before the odd sequence number.
+        VarHandle.storeStoreFence();
+    }
+
+    private void endWrite() {
+        seq++;
+    }
+
+    // Smallest power of two that holds n entries at no more than half load. A table grown at 3/4
+    // load therefore doubles, and one shrunk below 1/8 load ends up between 1/4 and 1/2.
+    private static int capacityFor(int n) {
+
+        int capacity = MIN_CAPACITY;
+        while (capacity / 2 < n) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    // murmur3's finalizer, so the low bits used for the slot index depend on the whole hash.
+    static int mix(int h) {
+
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,66 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Multi-reactor server mode ({@code --io-mode nio}). The accepting thread hands every new connection
+ * to one of {@code --io-threads} reactors round-robin; a connection then stays on that reactor for life.
+ * With {@code --unixsocket}, a second acceptor feeds Unix domain socket connections into the same reactors.
+ */
+public class EventLoopServer {
+
+    private final Config config;
+    private final Reactor[] reactors;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public EventLoopServer(Config config) {
+        this.config = config;
+        this.reactors = new Reactor[config.ioThreads()];
+    }
+
+    public void start() throws IOException {
+
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = new Reactor(config, i);
+            reactors[i].start();
+        }
+
+        if (config.unixSocket() != null) {
+            ServerSocketChannel unixChannel = Server.openUnixSocket(config.unixSocket());
+            Thread acceptor = new Thread(() -> {
+                try (unixChannel) {
+                    acceptLoop(unixChannel, false);
+                } catch (IOException e) {
+                    Log.warning("Unix socket listener stopped: {}", e);
+                }
+            }, "unix-acceptor");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int port = config.getPort();
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            serverChannel.bind(new InetSocketAddress(port));
+            Log.notice("Server started on port {} with {} reactor threads", port, reactors.length);
+
+            acceptLoop(serverChannel, true);
+        }
+    }
+
+    private void acceptLoop(ServerSocketChannel serverChannel, boolean tcp) throws IOException {
+
+        while (true) {
+            SocketChannel channel = serverChannel.accept();
+            channel.configureBlocking(false);
+            if (tcp) {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+
+            reactors[Math.floorMod(next.getAndIncrement(), reactors.length)].register(channel);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@code --maxmemory} enforcement. {@link Storage} and {@link StreamStorage} report every size change
+ * here, so {@link #usedMemory()} is the estimated dataset size rather than the JVM heap, which only
+ * shrinks when the collector runs. Write commands that may grow the dataset ({@link Command#DENYOOM})
+ * first call {@link #makeRoom()}, which evicts string keys until the dataset fits again.
+ * <p>
+ * As in Redis, victims are approximate: each round samples a few keys and merges them into a small
+ * pool of the best candidates seen so far, scored from the 32-bit access word each entry carries
+ * (a wrapping millisecond clock for LRU; a logarithmic counter with its last decay minute for LFU).
+ * Replicas leave eviction to their master and apply its DELs.
+ */
+public class Eviction {
+
+    public enum Policy {
+        NOEVICTION, ALLKEYS_LRU, ALLKEYS_LFU, VOLATILE_LRU, VOLATILE_TTL, ALLKEYS_RANDOM;
+
+        public String configName() {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+
+        public static Policy parse(String name) {
+
+            for (Policy policy : values()) {
+                if (policy.configName().equalsIgnoreCase(name)) {
+                    return policy;
+                }
+            }
+            throw new IllegalArgumentException("Unknown --maxmemory-policy: " + name
+                    + " (expected noeviction, allkeys-lru, allkeys-lfu, volatile-lru, volatile-ttl or allkeys-random)");
+        }
+
+        boolean volatileOnly() {
+            return this == VOLATILE_LRU || this == VOLATILE_TTL;
+        }
+    }
+
+    @FunctionalInterface
+    interface Sampler {
+        void accept(Key key, int access, long expireAt);
+    }
+
+    static final int SAMPLES = 5;
+    private static final int POOL_SIZE = 16;
+    // Consecutive rounds that free nothing before a write is refused.
+    private static final int MAX_EMPTY_ROUNDS = 8;
+
+    private static final int LFU_INIT_VAL = 5;
+    private static final int LFU_LOG_FACTOR = 10;
+    private static final int LFU_DECAY_MINUTES = 1;
+
+    private static final long START_MILLIS = System.currentTimeMillis();
+
+    private static long maxmemory;
+    private static Policy policy = Policy.NOEVICTION;
+    private static boolean tracksAccess;
+
+    private static final LongAdder used = new LongAdder();
+    private static final LongAdder evicted = new LongAdder();
+
+    // Guarded by the class lock; only touched while over the limit.
+    private static final Key[] poolKeys = new Key[POOL_SIZE];
+    private static final long[] poolScores = new long[POOL_SIZE];
+    private static int poolSize;
+
+    public static void configure(Config config) {
+
+        if (!config.isMaster()) {
+            return;
+        }
+        maxmemory = config.maxmemory();
+        policy = config.maxmemoryPolicy();
+        tracksAccess = maxmemory > 0 && (policy == Policy.ALLKEYS_LRU || policy == Policy.VOLATILE_LRU || policy == Policy.ALLKEYS_LFU);
+        if (maxmemory > 0) {
+            Log.notice("maxmemory {} bytes, policy {}", maxmemory, policy.configName());
+        }
+    }
+
+    public static void add(long bytes) {
+        used.add(bytes);
+    }
+
+    public static long usedMemory() {
+        return used.sum();
+    }
+
+    public static long evictedKeys() {
+        return evicted.sum();
+    }
+
+    /**
+     * Whether entries should maintain their access word. Off unless an LRU or LFU policy is active,
+     * so the read path does not write to entries for nothing.
+     */
+    static boolean tracksAccess() {
+        return tracksAccess;
+    }
+
+    static int newAccess() {
+        return policy == Policy.ALLKEYS_LFU ? (minutes() << 8) | LFU_INIT_VAL : lruClock();
+    }
+
+    /**
+     * The access word after a hit: the current LRU clock, or the LFU counter decayed for the idle
+     * minutes and then incremented with a probability that falls as it grows.
+     */
+    static int touch(int access) {
+
+        if (policy != Policy.ALLKEYS_LFU) {
+            return lruClock();
+        }
+        int counter = lfuDecayed(access);
+        if (counter < 255) {
+            double p = 1.0 / (Math.max(counter - LFU_INIT_VAL, 0) * LFU_LOG_FACTOR + 1);
+            if (ThreadLocalRandom.current().nextDouble() < p) {
+                counter++;
+            }
+        }
+        return (minutes() << 8) | counter;
+    }
+
+    /**
+     * Evicts until the dataset fits under {@code --maxmemory}. Returns false if it is still over the
+     * limit and nothing more can be evicted, in which case the write must be refused.
+     */
+    public static boolean makeRoom() {
+
+        if (maxmemory == 0 || used.sum() <= maxmemory) {
+            return true;
+        }
+        if (policy == Policy.NOEVICTION) {
+            return false;
+        }
+
+        synchronized (Eviction.class) {
+            int emptyRounds = 0;
+            while (used.sum() > maxmemory) {
+                if (evictOne()) {
+                    evicted.increment();
+                    emptyRounds = 0;
+                } else if (++emptyRounds == MAX_EMPTY_ROUNDS) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean evictOne() {
+
+        boolean volatileOnly = policy.volatileOnly();
+        if (policy == Policy.ALLKEYS_RANDOM) {
+            Key[] victim = new Key[1];
+            Storage.sample(1, false, (key, access, expireAt) -> victim[0] = key);
+            return victim[0] != null && Storage.evict(victim[0], false);
+        }
+
+        Storage.sample(SAMPLES, volatileOnly, (key, access, expireAt) -> offer(key, score(access, expireAt)));
+        // Best candidate first; a key deleted or locked since it was pooled is dropped and the next tried.
+        while (poolSize > 0) {
+            Key key = poolKeys[--poolSize];
+            poolKeys[poolSize] = null;
+            if (Storage.evict(key, volatileOnly)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Higher means evict sooner.
+    private static long score(int access, long expireAt) {
+
+        return switch (policy) {
+            case ALLKEYS_LFU -> 255 - lfuDecayed(access);
+            case VOLATILE_TTL -> Long.MAX_VALUE - expireAt;
+            // Unsigned, so the idle time stays right across the clock's 49-day wrap.
+            default -> Integer.toUnsignedLong(lruClock() - access);
+        };
+    }
+
+    // Keeps the pool sorted ascending by score, dropping the worst candidate when full.
+    private static void offer(Key key, long score) {
+
+        for (int i = 0; i < poolSize; i++) {
+            if (poolKeys[i].equals(key)) {
+                System.arraycopy(poolKeys, i + 1, poolKeys, i, poolSize - i - 1);
+                System.arraycopy(poolScores, i + 1, poolScores, i, poolSize - i - 1);
+                poolKeys[--poolSize] = null;
+                break;
+            }
+        }
+
+        int at = 0;
+        while (at < poolSize && poolScores[at] < score) {
+            at++;
+        }
+        if (poolSize == POOL_SIZE) {
+            if (at == 0) {
+                return;
+            }
+            // Shift the lower-scored part left, evicting index 0.
+            at--;
+            System.arraycopy(poolKeys, 1, poolKeys, 0, at);
+            System.arraycopy(poolScores, 1, poolScores, 0, at);
+        } else {
+            System.arraycopy(poolKeys, at, poolKeys, at + 1, poolSize - at);
+            System.arraycopy(poolScores, at, poolScores, at + 1, poolSize - at);
+            poolSize++;
+        }
+        poolKeys[at] = key;
+        poolScores[at] = score;
+    }
+
+    private static int lfuDecayed(int access) {
+
+        int elapsed = (minutes() - (access >>> 8)) & 0xFFFF;
+        int counter = access & 0xFF;
+        int periods = elapsed / LFU_DECAY_MINUTES;
+        return periods > counter ? 0 : counter - periods;
+    }
+
+    private static int lruClock() {
+        return (int) (Clock.millis() - START_MILLIS);
+    }
+
+    private static int minutes() {
+        return (int) ((Clock.millis() - START_MILLIS) / 60_000) & 0xFFFF;
+    }
+}
@@ -0,0 +1,138 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Active expiry. Keys written with a TTL are indexed by deadline in a hierarchical timing wheel:
+ * 4 levels of 64 slots over a 10ms tick (640ms, 41s, 44min, 47h), plus an overflow list for
+ * anything further out. A single thread owns the wheel; writers only enqueue onto a lock-free queue.
+ * Each tick, due keys are handed to {@link Storage#expireIfDue}, at most {@link #MAX_EXPIRES_PER_TICK}
+ * of them, so a mass expiry is spread over several ticks instead of stalling the stripes.
+ * A timer whose key was overwritten or deleted since is simply dropped when it fires.
+ */
+public class ExpiryWheel {
+
+    static final long TICK_MILLIS = 10;
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 4;
+    private static final int MAX_EXPIRES_PER_TICK = 2000;
+
+    private record Timer(Key key, long deadlineMillis) {}
+
+    private static final ConcurrentLinkedQueue<Timer> incoming = new ConcurrentLinkedQueue<>();
+    private static final LongAdder expired = new LongAdder();
+
+    // Owned by the expiry thread.
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final List<Timer>[][] wheel = new List[LEVELS][SLOTS];
+    private static final List<Timer> overflow = new ArrayList<>();
+    private static final ArrayDeque<Timer> due = new ArrayDeque<>();
+    private static long currentTick = Clock.millis() / TICK_MILLIS;
+
+    static {
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                wheel[level][slot] = new ArrayList<>();
+            }
+        }
+        Thread expiry = new Thread(ExpiryWheel::run, "expiry");
+        expiry.setDaemon(true);
+        expiry.start();
+    }
+
+    public static void schedule(Key key, long deadlineMillis) {
+
+        incoming.offer(new Timer(key, deadlineMillis));
+    }
+
+    public static long expiredKeys() {
+        return expired.sum();
+    }
+
+    /**
+     * Counts a key that {@link Storage} removed on access after its TTL passed, so expired_keys
+     * covers lazy expiry as well as the wheel.
+     */
+    static void countExpired() {
+        expired.increment();
+    }
+
+    private static void run() {
+
+        while (true) {
+            Timer timer;
+            while ((timer = incoming.poll()) != null) {
+                place(timer);
+            }
+
+            long nowTick = Clock.millis() / TICK_MILLIS;
+            while (currentTick < nowTick) {
+                advance();
+            }
+
+            for (int budget = MAX_EXPIRES_PER_TICK; budget > 0 && !due.isEmpty(); budget--) {
+                timer = due.poll();
+                if (Storage.expireIfDue(timer.key(), timer.deadlineMillis())) {
+                    expired.increment();
+                }
+            }
+
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS));
+        }
+    }
+
+    private static void place(Timer timer) {
+
+        // Round up so a timer never fires before its deadline.
+        long tick = (timer.deadlineMillis() + TICK_MILLIS - 1) / TICK_MILLIS;
+        if (tick <= currentTick) {
+            due.add(timer);
+            return;
+        }
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = level * SLOT_BITS;
+            if ((tick >> shift) - (currentTick >> shift) < SLOTS) {
+                wheel[level][(int) ((tick >> shift) & (SLOTS - 1))].add(timer);
+                return;
+            }
+        }
+        overflow.add(timer);
+    }
+
+    private static void advance() {
+
+        currentTick++;
+
+        // Cascade from the top so timers fall through every level they have reached.
+        for (int level = LEVELS - 1; level >= 1; level--) {
+            int shift = level * SLOT_BITS;
+            if ((currentTick & ((1L << shift) - 1)) == 0) {
+                if (level == LEVELS - 1) {
+                    replace(overflow);
+                }
+                replace(wheel[level][(int) ((currentTick >> shift) & (SLOTS - 1))]);
+            }
+        }
+
+        List<Timer> slot = wheel[0][(int) (currentTick & (SLOTS - 1))];
+        due.addAll(slot);
+        slot.clear();
+    }
+
+    private static void replace(List<Timer> timers) {
+
+        if (timers.isEmpty()) {
+            return;
+        }
+        List<Timer> moving = new ArrayList<>(timers);
+        timers.clear();
+        for (Timer timer : moving) {
+            place(timer);
+        }
+    }
+}
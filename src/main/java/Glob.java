@@ -0,0 +1,139 @@
+import java.util.Arrays;
+
+/**
+ * Redis glob-style matching over raw bytes, as used by KEYS and SCAN MATCH: {@code *}, {@code ?},
+ * {@code [abc]}, {@code [^abc]}, {@code [a-z]} and {@code \} escapes. Follows Redis's
+ * {@code stringmatchlen}, including its cut-off for patterns that would otherwise backtrack
+ * exponentially.
+ */
+public final class Glob {
+
+    private static final int MAX_NESTING = 1000;
+
+    private Glob() {
+    }
+
+    public static boolean matches(byte[] pattern, byte[] string) {
+        return match(pattern, 0, string, 0, new boolean[1], 0);
+    }
+
+    /**
+     * Whether the pattern matches every string, so callers can skip matching altogether.
+     */
+    public static boolean matchesAll(byte[] pattern) {
+
+        for (byte b : pattern) {
+            if (b != '*') {
+                return false;
+            }
+        }
+        return pattern.length > 0;
+    }
+
+    /**
+     * The bytes every match must start with: the pattern up to its first wildcard or class, with
+     * escapes resolved. Empty when the pattern starts with one.
+     */
+    public static byte[] literalPrefix(byte[] pattern) {
+
+        byte[] prefix = new byte[pattern.length];
+        int length = 0;
+        for (int i = 0; i < pattern.length; i++) {
+            byte c = pattern[i];
+            if (c == '*' || c == '?' || c == '[') {
+                break;
+            }
+            if (c == '\\' && i + 1 < pattern.length) {
+                c = pattern[++i];
+            }
+            prefix[length++] = c;
+        }
+        return Arrays.copyOf(prefix, length);
+    }
+
+    private static boolean match(byte[] p, int pi, byte[] s, int si, boolean[] skipLongerMatches, int nesting) {
+
+        // A nested match that ran out of string proves no longer suffix can match either.
+        if (nesting > MAX_NESTING) {
+            return false;
+        }
+
+        while (pi < p.length && si < s.length) {
+            byte c = p[pi];
+            if (c == '*') {
+                while (pi + 1 < p.length && p[pi + 1] == '*') {
+                    pi++;
+                }
+                if (pi + 1 == p.length) {
+                    return true;
+                }
+                for (; si < s.length; si++) {
+                    if (match(p, pi + 1, s, si, skipLongerMatches, nesting + 1)) {
+                        return true;
+                    }
+                    if (skipLongerMatches[0]) {
+                        return false;
+                    }
+                }
+                skipLongerMatches[0] = true;
+                return false;
+            } else if (c == '?') {
+                si++;
+            } else if (c == '[') {
+                pi++;
+                boolean not = pi < p.length && p[pi] == '^';
+                if (not) {
+                    pi++;
+                }
+                boolean found = false;
+                while (true) {
+                    if (pi >= p.length) {
+                        // Unterminated class: treat the end of the pattern as its close.
+                        pi--;
+                        break;
+                    }
+                    if (p[pi] == '\\' && pi + 1 < p.length) {
+                        pi++;
+                        found |= p[pi] == s[si];
+                    } else if (p[pi] == ']') {
+                        break;
+                    } else if (pi + 2 < p.length && p[pi + 1] == '-') {
+                        int start = p[pi] & 0xFF;
+                        int end = p[pi + 2] & 0xFF;
+                        int value = s[si] & 0xFF;
+                        if (start > end) {
+                            int swap = start;
+                            start = end;
+                            end = swap;
+                        }
+                        found |= value >= start && value <= end;
+                        pi += 2;
+                    } else {
+                        found |= p[pi] == s[si];
+                    }
+                    pi++;
+                }
+                if (found == not) {
+                    return false;
+                }
+                si++;
+            } else {
+                if (c == '\\' && pi + 1 < p.length) {
+                    pi++;
+                }
+                if (p[pi] != s[si]) {
+                    return false;
+                }
+                si++;
+            }
+            pi++;
+        }
+
+        if (si == s.length) {
+            while (pi < p.length && p[pi] == '*') {
+                pi++;
+            }
+        }
+        return pi == p.length && si == s.length;
+    }
+}
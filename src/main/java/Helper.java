@@ -2,9 +2,6 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
 public class Helper {
 
@@ -25,117 +22,70 @@ public class Helper {
         return buffer.toString(StandardCharsets.UTF_8);
     }
 
-    public static String[] parseRespCommand(InputStream input) throws IOException {
+    public static String[] toStrings(byte[][] args) {
 
-        String firstLine = readLine(input);
-
-        if (firstLine == null || firstLine.isEmpty()) {
-            return null; // Client disconnected
-        }
-
-        if (!firstLine.startsWith("*")) {
-            throw new IOException("Invalid RESP input: " + firstLine);
-        }
-
-        int argCount = Integer.parseInt(firstLine.substring(1));
-        String[] args = new String[argCount];
-
-        for (int i = 0; i < argCount; i++) {
-            String lengthLine = readLine(input); // $<length>
-            if (lengthLine == null || !lengthLine.startsWith("$")) {
-                throw new IOException("Invalid bulk string length line: " + lengthLine);
-            }
-
-            int length = Integer.parseInt(lengthLine.substring(1));
-            byte[] buffer = input.readNBytes(length);
-
-            readLine(input); // consume trailing \r\n
-            args[i] = new String(buffer);
+        String[] strings = new String[args.length];
+        for (int i = 0; i < args.length; i++) {
+            strings[i] = new String(args[i], StandardCharsets.UTF_8);
         }
-
-        return args;
+        return strings;
     }
 
-    public static String formatBulkString(String value) {
+    public static boolean equalsIgnoreCase(byte[] value, String ascii) {
 
-        return String.format("$%d\r\n%s\r\n", value.length(), value);
-    }
-
-    public static String formatSimpleError(String value) {
-
-        return String.format("-%s\r\n", value);
-    }
-
-    public static String formatBulkStringArray(List<String> args) {
-
-        StringBuilder response = new StringBuilder();
-        response.append("*").append(args.size()).append("\r\n");
-        for(String arg : args) {
-            response.append(formatBulkString(arg));
+        if (value.length != ascii.length()) {
+            return false;
         }
-        return response.toString();
-    }
-
-    public static String formatBulkArray(List<SimpleResponse> args) {
-
-        StringBuilder response = new StringBuilder();
-        response.append("*").append(args.size()).append("\r\n");
-        for(SimpleResponse arg : args) {
-            response.append(arg.getContent());
+        for (int i = 0; i < value.length; i++) {
+            int a = value[i];
+            int b = ascii.charAt(i);
+            if (a != b && (a | 0x20) != (b | 0x20)) {
+                return false;
+            }
+            if (a != b && ((a | 0x20) < 'a' || (a | 0x20) > 'z')) {
+                return false;
+            }
         }
-        return response.toString();
-    }
-
-    public static String formatSimpleString(String value) {
-
-        return String.format("+%s\r\n", value);
+        return true;
     }
 
-    public static String formatInteger(int count) {
+    /**
+     * Parses a signed decimal integer straight from argument bytes, without decoding to a String.
+     */
+    public static long parseLong(byte[] value) {
 
-        return String.format(":%d\r\n", count);
-    }
-
-    public static Map<String, String> parseFieldValuePairs(String... values) {
-
-        Map<String, String> map = new HashMap<>();
-        for (int i = 0; i < values.length; i += 2) {
-            map.put(values[i], values[i + 1]);
+        if (value.length == 0 || value.length > 20) {
+            throw new NumberFormatException("Invalid integer: " + new String(value, StandardCharsets.UTF_8));
         }
-        return map;
-    }
-
-    public static String formatXRange(List<StreamEntry> data) {
 
-        StringBuilder response = new StringBuilder();
-        response.append("*").append(data.size()).append("\r\n");
-        for (StreamEntry entry : data) {
-            response.append("*").append(2).append("\r\n");
-            String id = entry.id().toString();
-            response.append(formatBulkString(id));
-
-            int valuesSize = entry.values().size() * 2;
-            response.append("*").append(valuesSize).append("\r\n");
-            for (String key : entry.values().keySet()) {
-                response.append(formatBulkString(key));
-                response.append(formatBulkString(entry.values().get(key)));
+        int i = 0;
+        boolean negative = value[0] == '-';
+        if (negative) {
+            if (value.length == 1) {
+                throw new NumberFormatException("Invalid integer: -");
             }
+            i = 1;
         }
 
-        return response.toString();
-    }
-
-    public static String formatXRead(Map<String, List<StreamEntry>> data, List<String> streams) {
-
-        StringBuilder response = new StringBuilder();
-        response.append("*").append(data.size()).append("\r\n");
-        for (String stream : streams) {
-            response.append("*").append(2).append("\r\n");
-            response.append(formatBulkString(stream));
-            response.append(formatXRange(data.get(stream)));
+        long result = 0;
+        for (; i < value.length; i++) {
+            int digit = value[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid integer: " + new String(value, StandardCharsets.UTF_8));
+            }
+            // accumulate negatively so Long.MIN_VALUE fits
+            if (result < (Long.MIN_VALUE + digit) / 10) {
+                throw new NumberFormatException("Integer out of range: " + new String(value, StandardCharsets.UTF_8));
+            }
+            result = result * 10 - digit;
         }
 
-        return response.toString();
-
+        if (negative) {
+            return result;
+        }
+        if (result == Long.MIN_VALUE) {
+            throw new NumberFormatException("Integer out of range: " + new String(value, StandardCharsets.UTF_8));
+        }
+        return -result;
     }
 }
@@ -0,0 +1,71 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Consumer;
+
+/**
+ * Optional ordered index over the names in one keyspace ({@code --prefix-index yes}), so KEYS with a
+ * pattern such as {@code session:*} visits only the keys under its literal prefix instead of every
+ * key. Names are ordered by unsigned bytes, which keeps each prefix a contiguous range. The owning
+ * store adds a name when it is created and removes it when it goes, under the key's stripe lock, so
+ * the index agrees with the store for every key nobody is writing at that moment.
+ */
+public class KeyIndex {
+
+    // ConcurrentSkipListSet node (key, value, next) plus the index levels above about a quarter of them.
+    static final int NODE_FOOTPRINT = 32;
+
+    private static boolean enabled;
+
+    private final ConcurrentSkipListSet<Key> keys =
+            new ConcurrentSkipListSet<>((a, b) -> Arrays.compareUnsigned(a.bytes(), b.bytes()));
+
+    public static void configure(Config config) {
+
+        enabled = config.prefixIndex();
+        if (enabled) {
+            Log.notice("Prefix index enabled for KEYS");
+        }
+    }
+
+    public static boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * Bytes the index adds per key, for the memory accounting.
+     */
+    static int footprint() {
+        return enabled ? NODE_FOOTPRINT : 0;
+    }
+
+    public void add(Key key) {
+
+        if (enabled) {
+            keys.add(key);
+        }
+    }
+
+    public void remove(Key key) {
+
+        if (enabled) {
+            keys.remove(key);
+        }
+    }
+
+    /**
+     * Hands every indexed name starting with {@code prefix} to {@code visitor}, in byte order.
+     */
+    public void forEachWithPrefix(byte[] prefix, Consumer<Key> visitor) {
+
+        for (Key key : keys.tailSet(new Key(prefix))) {
+            if (!startsWith(key.bytes(), prefix)) {
+                return;
+            }
+            visitor.accept(key);
+        }
+    }
+
+    static boolean startsWith(byte[] bytes, byte[] prefix) {
+        return bytes.length >= prefix.length && Arrays.equals(bytes, 0, prefix.length, prefix, 0, prefix.length);
+    }
+}
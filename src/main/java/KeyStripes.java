@@ -0,0 +1,161 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped write locks and per-key modification counters over the whole keyspace ({@link Storage}
+ * and {@link StreamStorage}). Every write command holds its keys' stripe locks while it runs, and the
+ * stores {@link #touch} a key whenever they actually change it. Only WATCHed keys have a counter, so
+ * a write to any other key pays one isEmpty check. EXEC locks the stripes its keys and watched keys
+ * fall into, so transactions on disjoint stripes run in parallel.
+ */
+public class KeyStripes {
+
+    static final int STRIPES = 1024;
+
+    private static final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+    // Counters of the keys some connection is watching, dropped with the last watcher. Both the
+    // counter and the watcher count change under the key's stripe lock.
+    private static final Map<Key, Watch> watches = new ConcurrentHashMap<>();
+
+    private static final class Watch {
+        long version;
+        int watchers;
+    }
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public static int stripeOf(byte[] key) {
+
+        int h = Arrays.hashCode(key);
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    public static int stripeOf(Key key) {
+
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    /**
+     * Indices of {@code keys} ordered by stripe (stable within a stripe), so a batch can visit each
+     * stripe once.
+     */
+    public static int[] orderByStripe(Key[] keys) {
+
+        long[] packed = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            packed[i] = ((long) stripeOf(keys[i]) << 32) | i;
+        }
+        Arrays.sort(packed);
+        int[] order = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            order[i] = (int) packed[i];
+        }
+        return order;
+    }
+
+    /**
+     * Starts a WATCH on {@code key} and returns its current version.
+     */
+    public static long watch(Key key) {
+
+        int stripe = stripeOf(key);
+        lock(stripe);
+        try {
+            Watch watch = watches.computeIfAbsent(key, k -> new Watch());
+            watch.watchers++;
+            return watch.version;
+        } finally {
+            unlock(stripe);
+        }
+    }
+
+    /**
+     * Ends one WATCH on {@code key} started by {@link #watch}.
+     */
+    public static void unwatch(Key key) {
+
+        int stripe = stripeOf(key);
+        lock(stripe);
+        try {
+            Watch watch = watches.get(key);
+            if (watch != null && --watch.watchers == 0) {
+                watches.remove(key);
+            }
+        } finally {
+            unlock(stripe);
+        }
+    }
+
+    /**
+     * Current version of a watched {@code key}. The caller holds its stripe lock.
+     */
+    public static long version(Key key) {
+
+        Watch watch = watches.get(key);
+        return watch == null ? -1 : watch.version;
+    }
+
+    /**
+     * Records a change to {@code key}, failing EXEC for every connection watching it. The caller
+     * holds the key's stripe lock.
+     */
+    public static void touch(Key key) {
+
+        if (!watches.isEmpty()) {
+            Watch watch = watches.get(key);
+            if (watch != null) {
+                watch.version++;
+            }
+        }
+    }
+
+    public static void lock(int stripe) {
+        locks[stripe].lock();
+    }
+
+    public static boolean tryLock(int stripe) {
+        return locks[stripe].tryLock();
+    }
+
+    public static void unlock(int stripe) {
+        locks[stripe].unlock();
+    }
+
+    /**
+     * Locks the given stripes in ascending order so concurrent multi-stripe lockers cannot deadlock.
+     * {@code stripes} must be sorted and free of duplicates, as {@link #distinctSorted} returns.
+     */
+    public static void lockAll(int[] stripes) {
+
+        for (int stripe : stripes) {
+            locks[stripe].lock();
+        }
+    }
+
+    public static void unlockAll(int[] stripes) {
+
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            locks[stripes[i]].unlock();
+        }
+    }
+
+    public static int[] distinctSorted(int[] stripes, int count) {
+
+        int[] sorted = Arrays.copyOf(stripes, count);
+        Arrays.sort(sorted);
+        int unique = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[unique++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, unique);
+    }
+}
@@ -0,0 +1,194 @@
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileDescriptor;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Leveled logger with a single background writer. Callers only check the level and enqueue the
+ * pattern and its arguments; substituting {@code {}} placeholders and writing to the console happen
+ * on the writer thread. When the bounded queue is full the line is dropped and counted instead of
+ * blocking the caller.
+ */
+public final class Log {
+
+    public enum Level {
+        DEBUG('.'), VERBOSE('-'), NOTICE('*'), WARNING('#');
+
+        private final char marker;
+
+        Level(char marker) {
+            this.marker = marker;
+        }
+
+        public static Level parse(String name) {
+
+            for (Level level : values()) {
+                if (level.name().equalsIgnoreCase(name)) {
+                    return level;
+                }
+            }
+            throw new IllegalArgumentException("Unknown --loglevel: " + name + " (expected debug, verbose, notice or warning)");
+        }
+    }
+
+    private record Line(Level level, long timeMillis, String pattern, Object first, Object second) {}
+
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("dd MMM yyyy HH:mm:ss.SSS", Locale.ROOT)
+            .withZone(ZoneId.systemDefault());
+    private static final long PID = ProcessHandle.current().pid();
+
+    private static final BlockingQueue<Line> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final LongAdder dropped = new LongAdder();
+    private static volatile int minLevel = Level.NOTICE.ordinal();
+
+    static {
+        Thread writer = new Thread(Log::writeLoop, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public static void configure(Config config) {
+        minLevel = config.logLevel().ordinal();
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.ordinal() >= minLevel;
+    }
+
+    public static long dropped() {
+        return dropped.sum();
+    }
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message, null, null);
+    }
+
+    public static void debug(String pattern, Object arg) {
+        log(Level.DEBUG, pattern, arg, null);
+    }
+
+    public static void debug(String pattern, Object first, Object second) {
+        log(Level.DEBUG, pattern, first, second);
+    }
+
+    public static void verbose(String message) {
+        log(Level.VERBOSE, message, null, null);
+    }
+
+    public static void verbose(String pattern, Object arg) {
+        log(Level.VERBOSE, pattern, arg, null);
+    }
+
+    public static void verbose(String pattern, Object first, Object second) {
+        log(Level.VERBOSE, pattern, first, second);
+    }
+
+    public static void notice(String message) {
+        log(Level.NOTICE, message, null, null);
+    }
+
+    public static void notice(String pattern, Object arg) {
+        log(Level.NOTICE, pattern, arg, null);
+    }
+
+    public static void notice(String pattern, Object first, Object second) {
+        log(Level.NOTICE, pattern, first, second);
+    }
+
+    public static void warning(String message) {
+        log(Level.WARNING, message, null, null);
+    }
+
+    public static void warning(String pattern, Object arg) {
+        log(Level.WARNING, pattern, arg, null);
+    }
+
+    public static void warning(String pattern, Object first, Object second) {
+        log(Level.WARNING, pattern, first, second);
+    }
+
+    private static void log(Level level, String pattern, Object first, Object second) {
+
+        if (level.ordinal() < minLevel) {
+            return;
+        }
+        if (!queue.offer(new Line(level, System.currentTimeMillis(), pattern, first, second))) {
+            dropped.increment();
+        }
+    }
+
+    private static void writeLoop() {
+
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 64 * 1024), false, StandardCharsets.UTF_8);
+        PrintStream err = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.err), 8 * 1024), false, StandardCharsets.UTF_8);
+        List<Line> batch = new ArrayList<>();
+        long reportedDrops = 0;
+
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch);
+
+            long drops = dropped.sum();
+            if (drops > reportedDrops) {
+                err.println(prefix(Level.WARNING, System.currentTimeMillis()) + (drops - reportedDrops) + " log lines dropped (queue full)");
+                reportedDrops = drops;
+            }
+
+            for (Line line : batch) {
+                PrintStream target = line.level() == Level.WARNING ? err : out;
+                target.println(prefix(line.level(), line.timeMillis()) + format(line));
+            }
+            batch.clear();
+            out.flush();
+            err.flush();
+        }
+    }
+
+    private static String prefix(Level level, long timeMillis) {
+        return PID + ":M " + TIME.format(Instant.ofEpochMilli(timeMillis)) + " " + level.marker + " ";
+    }
+
+    private static String format(Line line) {
+
+        String pattern = line.pattern();
+        StringBuilder text = new StringBuilder(pattern.length() + 32);
+        Object[] args = {line.first(), line.second()};
+        int next = 0;
+        int from = 0;
+        int at;
+        while (next < args.length && (at = pattern.indexOf("{}", from)) >= 0) {
+            text.append(pattern, from, at).append(render(args[next++]));
+            from = at + 2;
+        }
+        return text.append(pattern, from, pattern.length()).toString();
+    }
+
+    private static String render(Object arg) {
+
+        if (arg instanceof byte[][] args) {
+            return String.join(" ", Helper.toStrings(args));
+        }
+        if (arg instanceof byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        if (arg instanceof Throwable error) {
+            return error.getMessage() == null ? error.toString() : error.getMessage();
+        }
+        return String.valueOf(arg);
+    }
+}
@@ -8,11 +8,16 @@ public class Main {
 
     public static void main(String[] args) throws InterruptedException {
 
-        System.out.println("Loading configuration...");
         Config config = Config.fromArgs(args);
-        System.out.println("Configuration loaded: " + config);
+        Log.configure(config);
+        Log.notice("Configuration loaded: {}", config);
 
+        SlowLog.configure(config);
+        Eviction.configure(config);
+        KeyIndex.configure(config);
+        Storage.configure(config);
         RDBParser.parseInitialRDBFile(config);
+        ShardExecutor.start(config);
 
         Server server = new Server(config);
         Thread.startVirtualThread(() -> {
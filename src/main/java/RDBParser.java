@@ -15,8 +15,7 @@ public class RDBParser {
             try(BufferedInputStream bis = new BufferedInputStream(new FileInputStream(config.rdbFile()))) {
                 RDBParser.parseRDB(bis);
             } catch (IOException e) {
-                e.printStackTrace();
-                throw new RuntimeException("Cannot read keys");
+                throw new RuntimeException("Cannot read keys", e);
             }
         }
     }
@@ -74,17 +73,17 @@ public class RDBParser {
             }
         }
 
-        System.out.println("RDB file parsed successfully");
+        Log.notice("RDB file parsed successfully");
     }
 
     private static void saveKeyValueToStorage(DataInputStream dis, long expiry) throws IOException {
 
-        String key = readString(dis);
-        String value = readString(dis);
+        Key key = new Key(readBytes(dis));
+        byte[] value = readBytes(dis);
 //        System.out.println("Key: " + key + ", Value: " + value);
 
         if (expiry != 0L) {
-            Storage.setWithExpiry(key, value, expiry - System.currentTimeMillis());
+            Storage.setWithExpireAt(key, value, expiry);
         } else {
             Storage.set(key, value);
         }
@@ -120,36 +119,38 @@ public class RDBParser {
 
     private static String readString(DataInputStream dis) throws IOException {
 
+        return new String(readBytes(dis), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(DataInputStream dis) throws IOException {
+
         int firstByte = dis.readUnsignedByte();
 
         if ((firstByte & 0xC0) == 0x00) {
             // 6-bit length string
             int length = firstByte & 0x3F;
-            byte[] bytes = dis.readNBytes(length);
-            return new String(bytes);
+            return dis.readNBytes(length);
         } else if ((firstByte & 0xC0) == 0x40) {
             // 14-bit length string
             int secondByte = dis.readUnsignedByte();
             int length = ((firstByte & 0x3F) << 8) | secondByte;
-            byte[] bytes = dis.readNBytes(length);
-            return new String(bytes);
+            return dis.readNBytes(length);
         } else if (firstByte == 0x80) {
             // 32-bit length string
             int length = dis.readInt();
-            byte[] bytes = dis.readNBytes(length);
-            return new String(bytes);
+            return dis.readNBytes(length);
         } else if (firstByte == 0xC0) {
             // Encoded as 8-bit int (INT8)
             int value = dis.readByte();
-            return Integer.toString(value);
+            return Integer.toString(value).getBytes(StandardCharsets.US_ASCII);
         } else if (firstByte == 0xC1) {
             // Encoded as 16-bit int (INT16), little-endian
             short value = Short.reverseBytes(dis.readShort());
-            return Short.toString(value);
+            return Short.toString(value).getBytes(StandardCharsets.US_ASCII);
         } else if (firstByte == 0xC2) {
             // Encoded as 32-bit int (INT32), little-endian
             int value = Integer.reverseBytes(dis.readInt());
-            return Integer.toString(value);
+            return Integer.toString(value).getBytes(StandardCharsets.US_ASCII);
         } else {
             throw new IOException("Unsupported string encoding, first byte: " + String.format("0x%02X", firstByte));
         }
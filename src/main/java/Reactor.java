@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One selector thread owning a share of the connections. All reads, parsing and dispatching of
+ * non-blocking commands for its connections happen on this thread; other threads only talk to it
+ * through {@link #register} and {@link #execute}.
+ */
+public class Reactor {
+
+    private final Config config;
+    private final int index;
+    private final Selector selector;
+    // Set by start(), before any connection can reach this reactor.
+    private Thread thread;
+    private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    public Reactor(Config config, int index) throws IOException {
+        this.config = config;
+        this.index = index;
+        this.selector = Selector.open();
+    }
+
+    public void start() {
+        thread = Thread.ofPlatform().name("reactor-" + index).start(this::run);
+    }
+
+    public void register(SocketChannel channel) {
+        pendingChannels.add(channel);
+        selector.wakeup();
+    }
+
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    public boolean inReactorThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    private void run() {
+
+        while (true) {
+            try {
+                selector.select();
+                registerPendingChannels();
+                runTasks();
+
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    ChannelConnection connection = (ChannelConnection) key.attachment();
+                    if (!key.isValid()) {
+                        connection.close();
+                        continue;
+                    }
+                    try {
+                        if (key.isWritable()) {
+                            connection.onWritable();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                    } catch (RuntimeException e) {
+                        // Commands fail per connection; whatever still gets here ends that connection only.
+                        Log.warning("Error handling connection: {}", e);
+                        connection.close();
+                    }
+                }
+            } catch (IOException e) {
+                Log.warning("Error in reactor loop: {}", e);
+            }
+        }
+    }
+
+    private void registerPendingChannels() {
+
+        SocketChannel channel;
+        while ((channel = pendingChannels.poll()) != null) {
+            try {
+                ChannelConnection connection = ChannelConnection.open(config, this, channel);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connection.attach(key);
+            } catch (ClosedChannelException e) {
+                // client went away before we got to it
+            } catch (IOException e) {
+                Log.warning("Error registering connection: {}", e);
+            }
+        }
+    }
+
+    private void runTasks() {
+
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.warning("Error in reactor task: {}", e);
+            }
+        }
+    }
+}
@@ -1,8 +1,6 @@
 import java.io.*;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.List;
 
 public class ReplicaClient {
 
@@ -19,19 +17,19 @@ public class ReplicaClient {
 
         Socket socket = new Socket(host, port);
         ConnectionContext context = new ConnectionContext(socket);
-        System.out.println("Connected to master " + host + ":" + port);
+        Log.notice("Connected to master {}:{}", host, port);
 
         OutputStream output = context.getOutput();
         InputStream input = context.getInput();
 
         sendCommand(output, "ping");
-        System.out.println("Response from master is " + Helper.readLine(input));
+        Log.verbose("Response from master is {}", Helper.readLine(input));
 
         sendCommand(output, "REPLCONF", "listening-port", String.valueOf(config.replicaPort()));
-        System.out.println("Response from master is " + Helper.readLine(input));
+        Log.verbose("Response from master is {}", Helper.readLine(input));
 
         sendCommand(output, "REPLCONF", "capa", "psync2");
-        System.out.println("Response from master is " + Helper.readLine(input));
+        Log.verbose("Response from master is {}", Helper.readLine(input));
 
         sendCommand(output, "PSYNC", "?", "-1");
 
@@ -39,7 +37,7 @@ public class ReplicaClient {
         if (!fullResyncLine.startsWith("+FULLRESYNC")) {
             throw new IOException("Expected FULLRESYNC, got: " + fullResyncLine);
         }
-        System.out.println("Full resync: " + fullResyncLine);
+        Log.notice("Full resync: {}", fullResyncLine);
 
         String lengthLine = Helper.readLine(input);
         if (!lengthLine.startsWith("$")) {
@@ -50,36 +48,37 @@ public class ReplicaClient {
         byte[] rdbBytes = input.readNBytes(rdbLength);
         BufferedInputStream rdbStream = new BufferedInputStream(new ByteArrayInputStream(rdbBytes));
         RDBParser.parseRDB(rdbStream);
-        System.out.println("Finished initial RDB sync");
+        Log.notice("Finished initial RDB sync");
 
         CommandDispatcher commandDispatcher = new CommandDispatcher(config);
+        RespParser parser = new RespParser();
 
         long ackOffset = 0;
         while (true) {
-            CountingInputStream counter = new CountingInputStream(input);
-            String[] args = Helper.parseRespCommand(counter);
-
-//            System.out.println("Replica received: " + Arrays.toString(args));
+            byte[][] args = parser.next();
             if (args == null) {
-                System.out.println("Master closed connection");
-                break;
+                if (parser.readFrom(input) == -1) {
+                    Log.warning("Master closed connection");
+                    break;
+                }
+                continue;
             }
 
+//            System.out.println("Replica received: " + Arrays.toString(args));
             commandDispatcher.dispatch(args, ackOffset, context);
-            String commandFromMaster = String.join(" ", args);
-            if (commandFromMaster.equals("REPLCONF GETACK *")) {
-                context.write(Helper.formatBulkStringArray(List.of("REPLCONF", "ACK", Long.toString(ackOffset))));
+            if (args.length == 3 && Helper.equalsIgnoreCase(args[0], "REPLCONF")
+                    && Helper.equalsIgnoreCase(args[1], "GETACK") && Helper.equalsIgnoreCase(args[2], "*")) {
+                context.write(RespBuffer.encodeCommand("REPLCONF", "ACK", Long.toString(ackOffset)));
             }
-            ackOffset += counter.getCount();
+            ackOffset += parser.lastFrameLength();
         }
 
     }
 
     private static void sendCommand(OutputStream out, String... args) throws IOException {
 
-        System.out.println("Sending command to master: " + Arrays.toString(args));
-        String sendCommand = Helper.formatBulkStringArray(Arrays.stream(args).toList());
-        out.write(sendCommand.getBytes(StandardCharsets.UTF_8));
+        Log.verbose("Sending command to master: {}", String.join(" ", args));
+        out.write(RespBuffer.encodeCommand(args));
         out.flush();
     }
 }
@@ -19,7 +19,7 @@ public class ReplicaHandshakeHandler {
         output.write(rdbBytes);
         output.flush();
 
-        System.out.println("Replica handshake complete for " + context.getSocket().getRemoteSocketAddress());
+        Log.notice("Replica handshake complete for {}", context.getRemoteAddress());
         ReplicationManager.addReplica(context);
     }
 
@@ -1,7 +1,5 @@
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -13,7 +11,7 @@ public class ReplicationManager {
     public static void addReplica(ConnectionContext context) {
 
         replicaConnections.add(context);
-        System.out.println("Added replica: " + context.getSocket().getRemoteSocketAddress());
+        Log.notice("Added replica: {}", context.getRemoteAddress());
     }
 
     public static void removeReplica(ConnectionContext context) {
@@ -23,17 +21,16 @@ public class ReplicationManager {
         } catch (IOException e) {
             // ignore
         }
-        System.out.println("Removed replica: " + context.getSocket().getRemoteSocketAddress());
+        Log.notice("Removed replica: {}", context.getRemoteAddress());
     }
 
-    public static void propagateToReplicas(String[] commandArgs) {
+    public static void propagateToReplicas(byte[][] commandArgs) {
 
 //        System.out.println("Propagating to replicas: " + String.join(" ", commandArgs));
-        replicaConnections.removeIf(ctx -> ctx.getSocket().isClosed());
+        replicaConnections.removeIf(ConnectionContext::isClosed);
 //        System.out.println("REPLICAS SIZE: " + replicaConnections.size());
 
-        String command = Helper.formatBulkStringArray(Arrays.stream(commandArgs).toList());
-        byte[] bytes = command.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = RespBuffer.encodeCommand(commandArgs);
 
         for (ConnectionContext connectionContext : replicaConnections) {
             try {
@@ -41,7 +38,7 @@ public class ReplicationManager {
                 out.write(bytes);
                 out.flush();
             } catch (IOException e) {
-                System.err.println("Error writing to replica " + connectionContext.getSocket().getRemoteSocketAddress());
+                Log.warning("Error writing to replica {}", connectionContext.getRemoteAddress());
                 removeReplica(connectionContext);
             }
         }
@@ -56,8 +53,8 @@ public class ReplicationManager {
 
     public static void sendGetAckToReplicas() {
 
-        System.out.println("Sending ack to replicas");
-        byte[] getack = Helper.formatBulkStringArray(List.of("REPLCONF", "GETACK", "*")).getBytes(StandardCharsets.UTF_8);
+        Log.verbose("Sending ack to replicas");
+        byte[] getack = RespBuffer.encodeCommand("REPLCONF", "GETACK", "*");
 
         for (ConnectionContext connectionContext : replicaConnections) {
             if (Main.repl_offset.get() == 0) {
@@ -69,7 +66,7 @@ public class ReplicationManager {
                     output.write(getack);
                     output.flush();
                 } catch (IOException e) {
-                    System.err.println("Error writing to replica in sendGetAckToReplicas " + connectionContext.getSocket().getRemoteSocketAddress());
+                    Log.warning("Error writing to replica in sendGetAckToReplicas {}", connectionContext.getRemoteAddress());
                     removeReplica(connectionContext);
                 }
             });
@@ -1,10 +1,16 @@
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class RequestHandler {
 
+    // Large pipelined replies are pushed out early instead of growing the buffer without bound.
+    private static final int FLUSH_THRESHOLD = 64 * 1024;
+    // Upper bound on pipelined commands handed to the shards in one go.
+    static final int MAX_SHARD_BATCH = 512;
+
     private final Config config;
     private final CommandDispatcher dispatcher;
 
@@ -13,42 +19,112 @@ public class RequestHandler {
         this.dispatcher = new CommandDispatcher(config);
     }
 
-    public void handleWithPreloadedCommand(ConnectionContext ctx, String[] preloadedCommand) {
+    public void process(ConnectionContext ctx, byte[][] args) throws IOException {
+
+        Log.debug("Received request: {}", args);
+
+        Command command = CommandDispatcher.lookup(args[0]);
+        if (CommandDispatcher.isBlocking(command, args)) {
+            // Earlier pipelined replies must not wait behind a command that may block.
+            ctx.flush();
+        }
 
+        // A command that fails on bad input gets an error reply; the connection and, in NIO mode, the
+        // reactor thread serving it carry on.
         try {
-            processOneCommand(ctx, preloadedCommand);
+            if (command != null && command.has(Command.HANDSHAKE) && !ctx.isInTransaction()) {
+                dispatcher.handleReplicaHandshakeCommand(command, args, ctx);
+            } else {
+                processOneCommand(ctx, command, args);
+            }
+        } catch (RuntimeException e) {
+            Log.warning("Error handling command: {}", e);
+            ctx.writeResponse(new ErrorResponse("ERR " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Whether the command can run on its key's shard: shard mode is on and the command touches exactly
+     * one key at a fixed position, cannot block and is not being queued inside MULTI.
+     */
+    public boolean isShardable(ConnectionContext ctx, byte[][] args) {
 
-            handle(ctx);
-        } catch (IOException e) {
-            System.err.println("Error handling client in handleWithPreloadedCommand: " + e.getMessage());
+        if (!ShardExecutor.isEnabled() || ctx.isInTransaction()) {
+            return false;
         }
+        Command command = CommandDispatcher.lookup(args[0]);
+        return command != null && command.isSingleKey() && command.acceptsArity(args.length);
     }
 
-    public void handle(ConnectionContext ctx) throws IOException {
+    /**
+     * Runs a batch of shardable commands, each on its key's shard. Commands for the same shard keep
+     * their pipeline order; the last shard to finish writes all replies in request order into the
+     * connection buffer and completes the returned future. Flushing is left to the caller.
+     */
+    public CompletableFuture<Void> processOnShards(ConnectionContext ctx, List<byte[][]> batch) {
 
-        BufferedInputStream input = ctx.getInput();
+        int size = batch.size();
+        Command[] commands = new Command[size];
+        RedisResponse[] responses = new RedisResponse[size];
+        List<List<Integer>> byShard = new ArrayList<>();
+        List<Integer> shardIds = new ArrayList<>();
 
-        while (true) {
-            String[] args = Helper.parseRespCommand(input);
-            if (args == null) {
-                System.out.println("Client disconnected");
-                break;
+        for (int i = 0; i < size; i++) {
+            byte[][] args = batch.get(i);
+            Log.debug("Received request: {}", args);
+            commands[i] = CommandDispatcher.lookup(args[0]);
+            int shard = ShardExecutor.shardOf(args[commands[i].firstKey()]);
+            int slot = shardIds.indexOf(shard);
+            if (slot < 0) {
+                slot = shardIds.size();
+                shardIds.add(shard);
+                byShard.add(new ArrayList<>());
             }
+            byShard.get(slot).add(i);
+        }
 
-            processOneCommand(ctx, args);
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        AtomicInteger remaining = new AtomicInteger(size);
+        for (int s = 0; s < shardIds.size(); s++) {
+            List<Integer> indices = byShard.get(s);
+            ShardExecutor.submit(shardIds.get(s), () -> {
+                for (int i : indices) {
+                    responses[i] = runOnShard(ctx, commands[i], batch.get(i));
+                }
+                if (remaining.addAndGet(-indices.size()) == 0) {
+                    for (RedisResponse response : responses) {
+                        if (response instanceof SimpleResponse simple) {
+                            ctx.writeResponse(simple);
+                        }
+                    }
+                    done.complete(null);
+                }
+            });
         }
+        return done;
     }
 
-    private void processOneCommand(ConnectionContext ctx, String[] args) throws IOException {
+    private RedisResponse runOnShard(ConnectionContext ctx, Command command, byte[][] args) {
 
-        RedisResponse response = dispatcher.dispatch(args, 0L, ctx);
+        try {
+            return dispatcher.dispatch(command, args, 0L, ctx);
+        } catch (RuntimeException e) {
+            return new ErrorResponse("ERR " + e.getMessage());
+        }
+    }
+
+    private void processOneCommand(ConnectionContext ctx, Command command, byte[][] args) throws IOException {
+
+        RedisResponse response = dispatcher.dispatch(command, args, 0L, ctx);
         if (response == null) {
             return;
         }
 //        System.out.println("Response in processOneCommand: " + response);
         if (response instanceof SimpleResponse simple) {
-            ctx.getOutput().write(simple.getContent().getBytes(StandardCharsets.UTF_8));
-            ctx.getOutput().flush();
+            ctx.writeResponse(simple);
+            if (ctx.pendingOutput() >= FLUSH_THRESHOLD) {
+                ctx.flush();
+            }
         } else if (response instanceof StreamableResponse streamable) {
             streamable.writeTo(ctx.getOutput());
         }
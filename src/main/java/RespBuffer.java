@@ -0,0 +1,282 @@
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Growable output buffer that encodes RESP directly into bytes. Fixed replies are preallocated,
+ * integers and length headers are written digit by digit, and the backing chunk comes from
+ * {@link BufferPool} and goes back there on {@link #reset()}.
+ */
+public final class RespBuffer {
+
+    public static final byte[] OK = "+OK\r\n".getBytes(StandardCharsets.US_ASCII);
+    public static final byte[] PONG = "+PONG\r\n".getBytes(StandardCharsets.US_ASCII);
+    public static final byte[] QUEUED = "+QUEUED\r\n".getBytes(StandardCharsets.US_ASCII);
+    public static final byte[] NULL_BULK = "$-1\r\n".getBytes(StandardCharsets.US_ASCII);
+    public static final byte[] NULL_ARRAY = "*-1\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int SHARED_HEADERS = 32;
+    private static final byte[][] BULK_HEADERS = new byte[SHARED_HEADERS][];
+    private static final byte[][] ARRAY_HEADERS = new byte[SHARED_HEADERS][];
+
+    static {
+        for (int i = 0; i < SHARED_HEADERS; i++) {
+            BULK_HEADERS[i] = ("$" + i + "\r\n").getBytes(StandardCharsets.US_ASCII);
+            ARRAY_HEADERS[i] = ("*" + i + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private byte[] buf;
+    private int count;
+
+    public int size() {
+        return count;
+    }
+
+    public byte[] array() {
+        return buf;
+    }
+
+    public void reset() {
+
+        if (buf != null) {
+            BufferPool.release(buf);
+            buf = null;
+        }
+        count = 0;
+    }
+
+    public byte[] toByteArray() {
+        return buf == null ? new byte[0] : Arrays.copyOf(buf, count);
+    }
+
+    public void writeRaw(byte[] bytes) {
+        writeRaw(bytes, 0, bytes.length);
+    }
+
+    public void writeRaw(byte[] bytes, int off, int len) {
+
+        ensureCapacity(len);
+        System.arraycopy(bytes, off, buf, count, len);
+        count += len;
+    }
+
+    public void writeSimpleString(String value) {
+
+        ensureCapacity(1);
+        buf[count++] = '+';
+        writeText(value);
+        writeCrlf();
+    }
+
+    public void writeError(String value) {
+
+        ensureCapacity(1);
+        buf[count++] = '-';
+        writeText(value);
+        writeCrlf();
+    }
+
+    public void writeInteger(long value) {
+
+        ensureCapacity(1);
+        buf[count++] = ':';
+        writeLong(value);
+        writeCrlf();
+    }
+
+    public void writeArrayHeader(int length) {
+
+        if (length >= 0 && length < SHARED_HEADERS) {
+            writeRaw(ARRAY_HEADERS[length]);
+            return;
+        }
+        ensureCapacity(1);
+        buf[count++] = '*';
+        writeLong(length);
+        writeCrlf();
+    }
+
+    public void writeBulk(byte[] value) {
+
+        writeBulkHeader(value.length);
+        ensureCapacity(value.length + 2);
+        System.arraycopy(value, 0, buf, count, value.length);
+        count += value.length;
+        buf[count++] = '\r';
+        buf[count++] = '\n';
+    }
+
+    /**
+     * Writes {@code length} bytes of native memory as a bulk string, copying straight into the buffer.
+     */
+    public void writeBulk(MemorySegment segment, long offset, int length) {
+
+        writeBulkHeader(length);
+        ensureCapacity(length + 2);
+        MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, offset, buf, count, length);
+        count += length;
+        buf[count++] = '\r';
+        buf[count++] = '\n';
+    }
+
+    public void writeBulk(String value) {
+
+        if (!isAscii(value)) {
+            writeBulk(value.getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        writeBulkHeader(value.length());
+        writeAscii(value);
+        writeCrlf();
+    }
+
+    /**
+     * Writes a stream ID as a bulk string ({@code <ms>-<seq>}) without going through {@code toString()}.
+     */
+    public void writeBulk(StreamId id) {
+
+        writeBulkHeader(digits(id.timestamp()) + 1 + digits(id.sequence()));
+        writeLong(id.timestamp());
+        ensureCapacity(1);
+        buf[count++] = '-';
+        writeLong(id.sequence());
+        writeCrlf();
+    }
+
+    public void writeBulkArray(List<byte[]> values) {
+
+        writeArrayHeader(values.size());
+        for (byte[] value : values) {
+            writeBulk(value);
+        }
+    }
+
+    public static byte[] encodeCommand(byte[][] args) {
+
+        RespBuffer buffer = new RespBuffer();
+        writeCommand(buffer, args);
+        return encoded(buffer);
+    }
+
+    public static byte[] encodeCommand(String... args) {
+
+        RespBuffer buffer = new RespBuffer();
+        buffer.writeArrayHeader(args.length);
+        for (String arg : args) {
+            buffer.writeBulk(arg);
+        }
+        return encoded(buffer);
+    }
+
+    private static void writeCommand(RespBuffer buffer, byte[][] args) {
+
+        buffer.writeArrayHeader(args.length);
+        for (byte[] arg : args) {
+            buffer.writeBulk(arg);
+        }
+    }
+
+    private static byte[] encoded(RespBuffer buffer) {
+
+        byte[] bytes = buffer.toByteArray();
+        buffer.reset();
+        return bytes;
+    }
+
+    private void writeBulkHeader(int length) {
+
+        if (length < SHARED_HEADERS) {
+            writeRaw(BULK_HEADERS[length]);
+            return;
+        }
+        ensureCapacity(1);
+        buf[count++] = '$';
+        writeLong(length);
+        writeCrlf();
+    }
+
+    private void writeText(String value) {
+
+        if (isAscii(value)) {
+            writeAscii(value);
+        } else {
+            writeRaw(value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void writeAscii(String value) {
+
+        int length = value.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            buf[count++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void writeLong(long value) {
+
+        if (value == Long.MIN_VALUE) {
+            writeRaw("-9223372036854775808".getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+
+        ensureCapacity(20);
+        if (value < 0) {
+            buf[count++] = '-';
+            value = -value;
+        }
+
+        int end = count + digits(value);
+        int pos = end;
+        do {
+            buf[--pos] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        count = end;
+    }
+
+    private void writeCrlf() {
+
+        ensureCapacity(2);
+        buf[count++] = '\r';
+        buf[count++] = '\n';
+    }
+
+    private static int digits(long value) {
+
+        int digits = 1;
+        long limit = 10;
+        while (digits < 19 && value >= limit) {
+            digits++;
+            limit *= 10;
+        }
+        return digits;
+    }
+
+    private static boolean isAscii(String value) {
+
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void ensureCapacity(int extra) {
+
+        if (buf == null) {
+            buf = BufferPool.acquire();
+        }
+        if (count + extra <= buf.length) {
+            return;
+        }
+
+        byte[] larger = Arrays.copyOf(buf, Math.max(buf.length * 2, count + extra));
+        BufferPool.release(buf);
+        buf = larger;
+    }
+}
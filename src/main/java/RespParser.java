@@ -0,0 +1,220 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Incremental RESP command parser. Bytes are appended with {@link #readFrom}; {@link #next()}
+ * returns the next complete command as raw argument bytes, or {@code null} when only a partial frame
+ * is buffered, so the same parser serves blocking streams and non-blocking channels.
+ * <p>
+ * The input buffer is a {@link BufferPool} chunk borrowed when bytes arrive and handed back once
+ * every buffered frame is parsed, so an idle connection holds no input buffer.
+ */
+public class RespParser {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final int MIN_READ_SPACE = 1024;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    private static final int MAX_MULTIBULK_LENGTH = 1024 * 1024;
+    private static final int MAX_BULK_LENGTH = 512 * 1024 * 1024;
+
+    // Write mode: bytes in [readIndex, position) are received but not yet parsed. EMPTY while there
+    // are none.
+    private ByteBuffer buffer = EMPTY;
+    private int readIndex;
+    // Total bytes the frame at readIndex needs, once known; avoids re-parsing large partial frames.
+    private int pendingFrameLength;
+    private int lastFrameLength;
+
+    public int readFrom(InputStream input) throws IOException {
+
+        if (buffer == EMPTY) {
+            // Wait for the next command without holding a buffer, then take whatever else is ready.
+            int first = input.read();
+            if (first < 0) {
+                return -1;
+            }
+            ensureWritable();
+            buffer.put((byte) first);
+            int ready = Math.min(input.available(), buffer.remaining());
+            int read = ready > 0 ? input.read(buffer.array(), buffer.position(), ready) : 0;
+            if (read > 0) {
+                buffer.position(buffer.position() + read);
+                return read + 1;
+            }
+            return 1;
+        }
+
+        ensureWritable();
+        int read = input.read(buffer.array(), buffer.position(), buffer.remaining());
+        if (read > 0) {
+            buffer.position(buffer.position() + read);
+        }
+        return read;
+    }
+
+    public int readFrom(ReadableByteChannel channel) throws IOException {
+
+        ensureWritable();
+        int read = channel.read(buffer);
+        if (readIndex == buffer.position()) {
+            releaseBuffer();
+        }
+        return read;
+    }
+
+    public boolean hasBufferedInput() {
+        return readIndex < buffer.position();
+    }
+
+    /**
+     * Size in bytes of the frame most recently returned by {@link #next()}.
+     */
+    public int lastFrameLength() {
+        return lastFrameLength;
+    }
+
+    public byte[][] next() throws IOException {
+
+        while (true) {
+            int limit = buffer.position();
+            if (readIndex == limit || limit - readIndex < pendingFrameLength) {
+                return null;
+            }
+
+            byte[] data = buffer.array();
+            int pos = readIndex;
+            if (data[pos] != '*') {
+                throw new IOException("Protocol error: expected '*', got '" + (char) data[pos] + "'");
+            }
+
+            int lineEnd = indexOfCrlf(data, pos + 1, limit);
+            if (lineEnd < 0) {
+                return null;
+            }
+            int argCount = parseLength(data, pos + 1, lineEnd, MAX_MULTIBULK_LENGTH, "multibulk");
+            pos = lineEnd + 2;
+
+            if (argCount == 0) {
+                consume(pos);
+                continue;
+            }
+
+            byte[][] args = new byte[argCount][];
+            for (int i = 0; i < argCount; i++) {
+                if (pos >= limit) {
+                    return null;
+                }
+                if (data[pos] != '$') {
+                    throw new IOException("Protocol error: expected '$', got '" + (char) data[pos] + "'");
+                }
+
+                lineEnd = indexOfCrlf(data, pos + 1, limit);
+                if (lineEnd < 0) {
+                    return null;
+                }
+                int length = parseLength(data, pos + 1, lineEnd, MAX_BULK_LENGTH, "bulk");
+                int start = lineEnd + 2;
+                if (limit - start < length + 2) {
+                    pendingFrameLength = start - readIndex + length + 2;
+                    return null;
+                }
+
+                args[i] = Arrays.copyOfRange(data, start, start + length);
+                pos = start + length + 2;
+            }
+
+            consume(pos);
+            return args;
+        }
+    }
+
+    private void consume(int pos) {
+
+        lastFrameLength = pos - readIndex;
+        pendingFrameLength = 0;
+        readIndex = pos;
+        if (readIndex == buffer.position()) {
+            releaseBuffer();
+        }
+    }
+
+    // Only called with nothing left to parse. Replies and parsed arguments are copies, so nothing
+    // else refers to the chunk.
+    private void releaseBuffer() {
+
+        if (buffer.capacity() == BufferPool.CHUNK_SIZE) {
+            BufferPool.release(buffer.array());
+        }
+        buffer = EMPTY;
+        readIndex = 0;
+    }
+
+    private void ensureWritable() {
+
+        if (buffer == EMPTY) {
+            buffer = ByteBuffer.wrap(BufferPool.acquire());
+        }
+
+        int unread = buffer.position() - readIndex;
+        int required = Math.max(unread + MIN_READ_SPACE, pendingFrameLength);
+        if (buffer.capacity() - buffer.position() >= MIN_READ_SPACE && buffer.capacity() - readIndex >= required) {
+            return;
+        }
+
+        if (required <= buffer.capacity()) {
+            System.arraycopy(buffer.array(), readIndex, buffer.array(), 0, unread);
+        } else {
+            int capacity = Math.max(buffer.capacity() * 2, required);
+            byte[] larger = new byte[capacity];
+            System.arraycopy(buffer.array(), readIndex, larger, 0, unread);
+            if (buffer.capacity() == BufferPool.CHUNK_SIZE) {
+                BufferPool.release(buffer.array());
+            }
+            buffer = ByteBuffer.wrap(larger);
+        }
+        buffer.position(unread);
+        readIndex = 0;
+    }
+
+    private static int indexOfCrlf(byte[] data, int from, int limit) throws IOException {
+
+        for (int i = from; i < limit; i++) {
+            if (data[i] == '\r') {
+                if (i + 1 == limit) {
+                    return -1;
+                }
+                if (data[i + 1] != '\n') {
+                    throw new IOException("Protocol error: expected CRLF");
+                }
+                return i;
+            }
+        }
+        if (limit - from > MAX_LINE_LENGTH) {
+            throw new IOException("Protocol error: too big length line");
+        }
+        return -1;
+    }
+
+    private static int parseLength(byte[] data, int from, int to, int max, String kind) throws IOException {
+
+        if (from == to) {
+            throw new IOException("Protocol error: invalid " + kind + " length");
+        }
+
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IOException("Protocol error: invalid " + kind + " length");
+            }
+            value = value * 10 + digit;
+            if (value > max) {
+                throw new IOException("Protocol error: invalid " + kind + " length");
+            }
+        }
+        return (int) value;
+    }
+}
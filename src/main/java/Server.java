@@ -2,6 +2,13 @@ import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Server {
@@ -12,14 +19,22 @@ public class Server {
         this.config = config;
     }
 
-    private static final List<String> replicaHandshakeCommands = List.of("PING", "REPLCONF", "PSYNC", "SYNC");
-
     public void start() throws IOException {
 
+        if (config.isEventLoopMode()) {
+            new EventLoopServer(config).start();
+            return;
+        }
+
+        if (config.unixSocket() != null) {
+            ServerSocketChannel unixChannel = openUnixSocket(config.unixSocket());
+            Thread.startVirtualThread(() -> acceptUnixConnections(unixChannel));
+        }
+
         int port = config.getPort();
         try (ServerSocket serverSocket = new ServerSocket(port)) {
             serverSocket.setReuseAddress(true);
-            System.out.println("Server started on port " + port);
+            Log.notice("Server started on port {}", port);
 
             while (true) {
                 Socket socket = serverSocket.accept();
@@ -27,42 +42,86 @@ public class Server {
 
                 Thread.startVirtualThread(() -> {
                     try {
-                        handleClientRequest(socket);
+                        handleClientRequest(new ConnectionContext(socket));
                     } catch (IOException ex) {
-                        System.err.println("Error handling request " + ex.getMessage());
-                        ex.printStackTrace();
+                        Log.warning("Error handling request {}", ex);
                     }
                 });
             }
         }
     }
 
-    private void handleClientRequest(Socket socket) throws IOException {
+    /**
+     * Binds a listener on a Unix domain socket path, replacing a stale socket file left by a previous run.
+     */
+    static ServerSocketChannel openUnixSocket(String path) throws IOException {
+
+        Path socketPath = Path.of(path);
+        Files.deleteIfExists(socketPath);
 
-        CommandDispatcher commandDispatcher = new CommandDispatcher(config);
+        ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        channel.bind(UnixDomainSocketAddress.of(socketPath));
+        socketPath.toFile().deleteOnExit();
+        Log.notice("Server listening on unix socket {}", socketPath);
+        return channel;
+    }
 
-        try(ConnectionContext context = new ConnectionContext(socket)) {
+    private void acceptUnixConnections(ServerSocketChannel unixChannel) {
+
+        try (unixChannel) {
+            while (true) {
+                SocketChannel channel = unixChannel.accept();
+                Thread.startVirtualThread(() -> {
+                    try {
+                        handleClientRequest(new ConnectionContext(channel));
+                    } catch (IOException ex) {
+                        Log.warning("Error handling request {}", ex);
+                    }
+                });
+            }
+        } catch (IOException e) {
+            Log.warning("Unix socket listener stopped: {}", e);
+        }
+    }
+
+    private void handleClientRequest(ConnectionContext connection) throws IOException {
+
+        RequestHandler requestHandler = new RequestHandler(config);
+
+        try(ConnectionContext context = connection) {
 
             BufferedInputStream input = context.getInput();
+            RespParser parser = new RespParser();
+            byte[][] deferred = null;
 
             while (true) {
-                String[] args = Helper.parseRespCommand(input);
+                byte[][] args = deferred != null ? deferred : parser.next();
+                deferred = null;
                 if (args == null) {
-                    System.out.println("Client disconnected");
-                    break;
+                    context.flush();
+                    if (parser.readFrom(input) == -1) {
+                        Log.verbose("Client disconnected");
+                        break;
+                    }
+                    continue;
                 }
 
-                System.out.println("Received request: " + String.join(" ", args));
-
-                String firstCommand = args[0].toUpperCase();
-                if (replicaHandshakeCommands.contains(firstCommand)) {
-                    commandDispatcher.handleReplicaHandshakeCommand(args, context);
-                } else {
-                    new RequestHandler(config).handleWithPreloadedCommand(context, args);
+                if (requestHandler.isShardable(context, args)) {
+                    List<byte[][]> batch = new ArrayList<>();
+                    batch.add(args);
+                    while (batch.size() < RequestHandler.MAX_SHARD_BATCH
+                            && (deferred = parser.next()) != null && requestHandler.isShardable(context, deferred)) {
+                        batch.add(deferred);
+                        deferred = null;
+                    }
+                    requestHandler.processOnShards(context, batch).join();
+                    continue;
                 }
+
+                requestHandler.process(context, args);
             }
         } catch (IOException e) {
-            System.err.println("Error handling client in handleClientRequest: " + e.getMessage());
+            Log.warning("Error handling client in handleClientRequest: {}", e);
         }
     }
 }
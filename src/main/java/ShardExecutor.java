@@ -0,0 +1,85 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Optional shard-per-core execution ({@code --shards N}) for pipelined single-key commands. Each
+ * shard is one platform thread draining a lock-free task queue, and owns a fixed set of
+ * {@link KeyStripes} stripes: every stripe belongs to exactly one shard. A connection's batch is
+ * split by shard and run back to back on the owning threads, so shards never contend with each
+ * other for a stripe lock or its {@link Storage} segment, which stays in one core's cache.
+ * <p>
+ * A shard is not the only writer of its keys. Multi-key and keyless commands, EXEC, expiry and
+ * eviction still run on connection and background threads, so commands on a shard take their
+ * stripe locks like everywhere else; the lock is just uncontended in the common case.
+ */
+public class ShardExecutor {
+
+    private static Shard[] shards;
+
+    public static void start(Config config) {
+
+        if (config.shards() <= 0) {
+            return;
+        }
+        Shard[] started = new Shard[config.shards()];
+        for (int i = 0; i < started.length; i++) {
+            started[i] = new Shard(i);
+            started[i].thread.start();
+        }
+        shards = started;
+        Log.notice("Keyspace split into {} shards", started.length);
+    }
+
+    public static boolean isEnabled() {
+        return shards != null;
+    }
+
+    public static int shardOf(byte[] key) {
+        return KeyStripes.stripeOf(key) % shards.length;
+    }
+
+    public static void submit(int shard, Runnable task) {
+        shards[shard].submit(task);
+    }
+
+    private static final class Shard {
+
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Thread thread;
+        private volatile boolean sleeping;
+
+        Shard(int index) {
+            this.thread = new Thread(this::run, "shard-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void submit(Runnable task) {
+
+            tasks.offer(task);
+            if (sleeping) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        private void run() {
+
+            while (true) {
+                Runnable task = tasks.poll();
+                if (task == null) {
+                    sleeping = true;
+                    // Re-check after publishing the flag so a concurrent submit cannot be missed.
+                    if (tasks.isEmpty()) {
+                        LockSupport.park(this);
+                    }
+                    sleeping = false;
+                    continue;
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Log.warning("Error in shard task: {}", e);
+                }
+            }
+        }
+    }
+}
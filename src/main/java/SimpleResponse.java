@@ -1,78 +1,167 @@
 import java.util.List;
 import java.util.Map;
 
-public sealed interface SimpleResponse extends RedisResponse permits TextResponse, IntegerResponse, ErrorResponse, SimpleStringResponse, NullStringResponse, BulkStringArrayResponse, XReadResponse, XRangeResponse, BulkArrayResponse {
-    String getContent();
+public sealed interface SimpleResponse extends RedisResponse permits ConstantResponse, TextResponse, BinaryResponse, PinnedResponse, IntegerResponse, ErrorResponse, SimpleStringResponse, NullStringResponse, BulkStringArrayResponse, BinaryArrayResponse, NullableBinaryArrayResponse, XReadResponse, XRangeResponse, BulkArrayResponse {
+
+    SimpleResponse OK = new ConstantResponse(RespBuffer.OK);
+    SimpleResponse PONG = new ConstantResponse(RespBuffer.PONG);
+    SimpleResponse QUEUED = new ConstantResponse(RespBuffer.QUEUED);
+    SimpleResponse NULL = new NullStringResponse();
+
+    void writeTo(RespBuffer out);
+}
+
+record ConstantResponse(byte[] encoded) implements SimpleResponse {
+
+    @Override
+    public void writeTo(RespBuffer out) {
+        out.writeRaw(encoded);
+    }
 }
 
 record TextResponse(String data) implements SimpleResponse {
 
     @Override
-    public String getContent() {
-        return Helper.formatBulkString(data);
+    public void writeTo(RespBuffer out) {
+        out.writeBulk(data);
     }
 }
 
-record IntegerResponse(int data) implements SimpleResponse {
+record BinaryResponse(byte[] data) implements SimpleResponse {
 
     @Override
-    public String getContent() {
-        return Helper.formatInteger(data);
+    public void writeTo(RespBuffer out) {
+        out.writeBulk(data);
+    }
+}
+
+/**
+ * A GET reply over a stored value, written without an intermediate copy for off-heap values.
+ */
+record PinnedResponse(Storage.Pinned value) implements SimpleResponse {
+
+    @Override
+    public void writeTo(RespBuffer out) {
+        value.writeBulkTo(out);
+    }
+}
+
+record IntegerResponse(long data) implements SimpleResponse {
+
+    @Override
+    public void writeTo(RespBuffer out) {
+        out.writeInteger(data);
     }
 }
 
 record ErrorResponse(String data) implements SimpleResponse {
 
     @Override
-    public String getContent() {
-        return Helper.formatSimpleError(data);
+    public void writeTo(RespBuffer out) {
+        out.writeError(data);
     }
 }
 
 record SimpleStringResponse(String data) implements SimpleResponse {
 
     @Override
-    public String getContent() {
-        return Helper.formatSimpleString(data);
+    public void writeTo(RespBuffer out) {
+        out.writeSimpleString(data);
     }
 }
 
 record NullStringResponse() implements SimpleResponse {
 
     @Override
-    public String getContent() {
-        return "$-1\r\n";
+    public void writeTo(RespBuffer out) {
+        out.writeRaw(RespBuffer.NULL_BULK);
     }
 }
 
 record BulkStringArrayResponse(List<String> data) implements SimpleResponse {
 
     @Override
-    public String getContent() {
-        return Helper.formatBulkStringArray(data);
+    public void writeTo(RespBuffer out) {
+        out.writeArrayHeader(data.size());
+        for (String value : data) {
+            out.writeBulk(value);
+        }
+    }
+}
+
+record BinaryArrayResponse(List<byte[]> data) implements SimpleResponse {
+
+    @Override
+    public void writeTo(RespBuffer out) {
+        out.writeBulkArray(data);
+    }
+}
+
+/**
+ * Array of bulk strings where a null element is sent as a null bulk string, as MGET replies.
+ */
+record NullableBinaryArrayResponse(byte[][] data) implements SimpleResponse {
+
+    @Override
+    public void writeTo(RespBuffer out) {
+        out.writeArrayHeader(data.length);
+        for (byte[] value : data) {
+            if (value == null) {
+                out.writeRaw(RespBuffer.NULL_BULK);
+            } else {
+                out.writeBulk(value);
+            }
+        }
     }
 }
 
 record BulkArrayResponse(List<SimpleResponse> data) implements SimpleResponse {
 
     @Override
-    public String getContent() {
-        return Helper.formatBulkArray(data);
+    public void writeTo(RespBuffer out) {
+        out.writeArrayHeader(data.size());
+        for (SimpleResponse response : data) {
+            response.writeTo(out);
+        }
     }
 }
 
-record XReadResponse(Map<String, List<StreamEntry>> data, List<String> streams) implements SimpleResponse {
+record XReadResponse(Map<Key, List<StreamEntry>> data, List<Key> streams) implements SimpleResponse {
 
     @Override
-    public String getContent() {
-        return Helper.formatXRead(data, streams);
+    public void writeTo(RespBuffer out) {
+        out.writeArrayHeader(streams.size());
+        for (Key stream : streams) {
+            out.writeArrayHeader(2);
+            out.writeBulk(stream.bytes());
+            XRangeResponse.writeEntries(out, data.get(stream));
+        }
     }
 }
 
 record XRangeResponse(List<StreamEntry> data) implements SimpleResponse {
 
     @Override
-    public String getContent() {
-        return Helper.formatXRange(data);
+    public void writeTo(RespBuffer out) {
+        writeEntries(out, data);
+    }
+
+    static void writeEntries(RespBuffer out, List<StreamEntry> entries) {
+        out.writeArrayHeader(entries.size());
+        for (StreamEntry entry : entries) {
+            out.writeArrayHeader(2);
+            out.writeBulk(entry.id());
+
+            // Null for a pending entry that has since been deleted from the stream.
+            byte[][] values = entry.values();
+            if (values == null) {
+                out.writeRaw(RespBuffer.NULL_ARRAY);
+                continue;
+            }
+            out.writeArrayHeader(values.length);
+            for (byte[] value : values) {
+                out.writeBulk(value);
+            }
+        }
     }
 }
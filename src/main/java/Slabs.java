@@ -0,0 +1,143 @@
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Native-memory slab allocator behind the off-heap storage engine ({@code --storage-engine offheap}).
+ * Memory comes from one shared {@link Arena} in 1 MiB pages. Each page is carved into equal chunks of
+ * one size class (32 bytes up to a full page, growing by 1.25x), a value takes one chunk of the
+ * smallest class that fits, and freed chunks go on their class's free list. As with memcached's
+ * slabs, pages are never handed back. A chunk is addressed by a {@code long} handle: page index in
+ * the high bits, offset within the page in the low 20.
+ */
+public class Slabs {
+
+    static final int PAGE_BITS = 20;
+    static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int MAX_PAGES = 1 << 17;
+    private static final int MIN_CHUNK = 32;
+
+    private static final Arena arena = Arena.ofShared();
+    private static final MemorySegment[] pages = new MemorySegment[MAX_PAGES];
+    private static int pageCount;
+
+    private static final int[] chunkSizes;
+    private static final SizeClass[] classes;
+    private static final LongAdder usedBytes = new LongAdder();
+
+    static {
+        int[] sizes = new int[64];
+        int count = 0;
+        for (int size = MIN_CHUNK; size < PAGE_SIZE; size = (int) (size * 1.25 + 7) & ~7) {
+            sizes[count++] = size;
+        }
+        sizes[count++] = PAGE_SIZE;
+        chunkSizes = Arrays.copyOf(sizes, count);
+        classes = new SizeClass[count];
+        for (int i = 0; i < count; i++) {
+            classes[i] = new SizeClass(chunkSizes[i]);
+        }
+    }
+
+    public static boolean fits(int length) {
+        return length <= PAGE_SIZE;
+    }
+
+    public static int chunkSize(int length) {
+        return chunkSizes[classOf(length)];
+    }
+
+    /**
+     * Copies {@code value} into a fresh chunk and returns its handle.
+     */
+    public static long store(byte[] value) {
+
+        int sizeClass = classOf(value.length);
+        long handle = classes[sizeClass].allocate();
+        MemorySegment.copy(value, 0, page(handle), ValueLayout.JAVA_BYTE, offset(handle), value.length);
+        usedBytes.add(chunkSizes[sizeClass]);
+        return handle;
+    }
+
+    public static void free(long handle, int length) {
+
+        int sizeClass = classOf(length);
+        classes[sizeClass].free(handle);
+        usedBytes.add(-chunkSizes[sizeClass]);
+    }
+
+    public static byte[] read(long handle, int length) {
+
+        byte[] value = new byte[length];
+        MemorySegment.copy(page(handle), ValueLayout.JAVA_BYTE, offset(handle), value, 0, length);
+        return value;
+    }
+
+    static MemorySegment page(long handle) {
+        return pages[(int) (handle >>> PAGE_BITS)];
+    }
+
+    static long offset(long handle) {
+        return handle & (PAGE_SIZE - 1);
+    }
+
+    public static long usedBytes() {
+        return usedBytes.sum();
+    }
+
+    public static synchronized long reservedBytes() {
+        return (long) pageCount * PAGE_SIZE;
+    }
+
+    private static int classOf(int length) {
+
+        int index = Arrays.binarySearch(chunkSizes, Math.max(length, 1));
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private static synchronized int newPage() {
+
+        if (pageCount == MAX_PAGES) {
+            throw new OutOfMemoryError("Off-heap slab pages exhausted");
+        }
+        pages[pageCount] = arena.allocate(PAGE_SIZE, 8);
+        return pageCount++;
+    }
+
+    private static final class SizeClass {
+
+        private final int chunkSize;
+        private long[] free = new long[16];
+        private int freeCount;
+        private int page = -1;
+        private int cursor;
+
+        SizeClass(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        synchronized long allocate() {
+
+            if (freeCount > 0) {
+                return free[--freeCount];
+            }
+            if (page < 0 || cursor + chunkSize > PAGE_SIZE) {
+                page = newPage();
+                cursor = 0;
+            }
+            long handle = ((long) page << PAGE_BITS) | cursor;
+            cursor += chunkSize;
+            return handle;
+        }
+
+        synchronized void free(long handle) {
+
+            if (freeCount == free.length) {
+                free = Arrays.copyOf(free, free.length * 2);
+            }
+            free[freeCount++] = handle;
+        }
+    }
+}
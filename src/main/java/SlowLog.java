@@ -0,0 +1,106 @@
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Commands slower than {@code --slowlog-log-slower-than} microseconds, kept in a fixed-size lock-free
+ * ring of {@code --slowlog-max-len} entries. Writers claim a slot with one {@code getAndIncrement} and
+ * publish the entry with a volatile store; readers skip slots that were overwritten under them.
+ */
+public class SlowLog {
+
+    private static final int MAX_ARGS = 32;
+    private static final int MAX_ARG_LENGTH = 128;
+
+    public record Entry(long id, long timestampSeconds, long durationMicros, byte[][] args, String clientAddress) {}
+
+    private static volatile long thresholdNanos = 10_000_000L;
+    private static volatile AtomicReferenceArray<Entry> slots = new AtomicReferenceArray<>(128);
+    private static final AtomicLong nextId = new AtomicLong();
+    private static volatile long resetId = 0;
+
+    public static void configure(Config config) {
+
+        long micros = config.slowlogLogSlowerThan();
+        thresholdNanos = micros < 0 ? Long.MAX_VALUE : micros * 1000;
+        slots = new AtomicReferenceArray<>(Math.max(config.slowlogMaxLen(), 1));
+    }
+
+    /**
+     * Called for every command; only the threshold comparison runs for fast ones.
+     */
+    public static void maybeRecord(long elapsedNanos, byte[][] args, ConnectionContext ctx) {
+
+        if (elapsedNanos < thresholdNanos) {
+            return;
+        }
+
+        AtomicReferenceArray<Entry> ring = slots;
+        long id = nextId.getAndIncrement();
+        Entry entry = new Entry(id, System.currentTimeMillis() / 1000, elapsedNanos / 1000,
+                truncate(args), formatAddress(ctx == null ? null : ctx.getRemoteAddress()));
+        ring.set((int) (id % ring.length()), entry);
+    }
+
+    /**
+     * Newest entries first, at most {@code count} of them.
+     */
+    public static List<Entry> get(int count) {
+
+        AtomicReferenceArray<Entry> ring = slots;
+        long newest = nextId.get() - 1;
+        long oldest = Math.max(resetId, newest - ring.length() + 1);
+
+        List<Entry> entries = new ArrayList<>();
+        for (long id = newest; id >= oldest && entries.size() < count; id--) {
+            Entry entry = ring.get((int) (id % ring.length()));
+            if (entry != null && entry.id() == id) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    public static int length() {
+
+        long stored = nextId.get() - resetId;
+        return (int) Math.min(stored, slots.length());
+    }
+
+    public static void reset() {
+        resetId = nextId.get();
+    }
+
+    private static byte[][] truncate(byte[][] args) {
+
+        int kept = Math.min(args.length, MAX_ARGS);
+        byte[][] copy = new byte[kept][];
+        for (int i = 0; i < kept; i++) {
+            byte[] arg = args[i];
+            if (arg.length > MAX_ARG_LENGTH) {
+                String more = "... (" + (arg.length - MAX_ARG_LENGTH) + " more bytes)";
+                byte[] cut = Arrays.copyOf(arg, MAX_ARG_LENGTH + more.length());
+                System.arraycopy(more.getBytes(StandardCharsets.US_ASCII), 0, cut, MAX_ARG_LENGTH, more.length());
+                arg = cut;
+            }
+            copy[i] = arg;
+        }
+        if (args.length > MAX_ARGS) {
+            copy[MAX_ARGS - 1] = ("... (" + (args.length - MAX_ARGS + 1) + " more arguments)").getBytes(StandardCharsets.US_ASCII);
+        }
+        return copy;
+    }
+
+    private static String formatAddress(SocketAddress address) {
+
+        if (address instanceof InetSocketAddress inet && inet.getAddress() != null) {
+            return inet.getAddress().getHostAddress() + ":" + inet.getPort();
+        }
+        return address == null ? "" : address.toString();
+    }
+}
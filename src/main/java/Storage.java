@@ -1,82 +1,772 @@
-import java.time.Instant;
-import java.util.ArrayList;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 public class Storage {
 
-    private static class ValueWithExpiry {
-        String value;
-        Instant expiryTime;
+    // Heap layout assumed by the MEMORY USAGE estimates: 64-bit JVM with compressed oops.
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+    // A Dict slot (hash, key, value) at its typical half load, and the Key wrapper.
+    private static final int DICT_SLOT = 2 * (4 + 2 * REFERENCE);
+    private static final int KEY_OBJECT = align(OBJECT_HEADER + REFERENCE + 4);
+    // Entry header: the expiry and the access word.
+    private static final int ENTRY_BASE = OBJECT_HEADER + 8 + 4;
 
-        ValueWithExpiry(String value, Instant expiryTime) {
-            this.value = value;
-            this.expiryTime = expiryTime;
+    /**
+     * A stored string, encoded by shape so small keys do not pay for several objects each. The TTL is
+     * an epoch-millis {@code long}, 0 when the key does not expire, checked against {@link Clock}.
+     * {@code access} is the LRU clock or LFU counter maintained for {@link Eviction}; it is written
+     * without synchronization since it only steers an approximation.
+     */
+    private abstract static class Entry implements Pinned {
+        final long expireAt;
+        int access;
+
+        Entry(long expireAt) {
+            this.expireAt = expireAt;
+            this.access = Eviction.newAccess();
+        }
+
+        static Entry of(byte[] value, long expireAt) {
+
+            if (isCanonicalLong(value)) {
+                return ofLong(Helper.parseLong(value), expireAt);
+            }
+            if (value.length <= EmbeddedEntry.CAPACITY) {
+                return new EmbeddedEntry(value, expireAt);
+            }
+            if (offHeap && Slabs.fits(value.length)) {
+                return new OffHeapEntry(value, expireAt);
+            }
+            return new RawEntry(value, expireAt);
+        }
+
+        static Entry ofLong(long number, long expireAt) {
+
+            // Shared entries have no access word of their own, so LRU/LFU policies turn them off.
+            if (expireAt == 0 && number >= 0 && number < SHARED_INTEGERS.length && !Eviction.tracksAccess()) {
+                return SHARED_INTEGERS[(int) number];
+            }
+            return new LongEntry(number, expireAt, false);
         }
 
         boolean isExpired() {
-            return expiryTime != null && Instant.now().isAfter(expiryTime);
+            return expireAt != 0 && expireAt <= Clock.millis();
+        }
+
+        /**
+         * The value as a heap array. Null only for an off-heap entry freed by a concurrent overwrite,
+         * in which case the caller reads the key again.
+         */
+        abstract byte[] bytes();
+
+        /**
+         * Estimated bytes owned by this entry, including any value array or slab chunk; 0 for a
+         * shared entry.
+         */
+        abstract int footprint();
+
+        /**
+         * This entry, pinned for a reply written after the key may have changed, or null as for
+         * {@link #bytes()}.
+         */
+        Pinned pin() {
+            return this;
+        }
+
+        @Override
+        public void writeBulkTo(RespBuffer out) {
+            out.writeBulk(bytes());
         }
+
+        // Called once when the entry leaves the map.
+        void release() {
+        }
+    }
+
+    /**
+     * A value read for a reply. {@link #writeBulkTo} must be called exactly once; for an off-heap
+     * value that copies straight from the slab into the reply buffer and then unpins the chunk.
+     */
+    public interface Pinned {
+        void writeBulkTo(RespBuffer out);
     }
 
-    private static final Map<String, ValueWithExpiry> data = new ConcurrentHashMap<>();
+    /**
+     * Canonical 64-bit integers as a native {@code long}, so counters update in place without a
+     * string round-trip. Shared entries are immutable; INCR replaces them instead.
+     */
+    private static final class LongEntry extends Entry {
+        volatile long number;
+        final boolean shared;
 
-//    static {
-//        startBackgroundCleanup();
-//    }
+        LongEntry(long number, long expireAt, boolean shared) {
+            super(expireAt);
+            this.number = number;
+            this.shared = shared;
+        }
 
-    private static void startBackgroundCleanup() {
-        Thread.startVirtualThread(() -> {
-            while (true) {
-                try {
-                    int removed = 0;
-                    for (Map.Entry<String, ValueWithExpiry> entry : data.entrySet()) {
-                        if (entry.getValue().isExpired()) {
-                            data.remove(entry.getKey());
-                            removed++;
-                        }
-                    }
-                    if (removed > 0) {
-                        System.out.println("Cleaned up " + removed + " expired keys");
-                    }
+        @Override
+        byte[] bytes() {
+            return Long.toString(number).getBytes(StandardCharsets.US_ASCII);
+        }
 
-                    // Sleep for 10 seconds
-                    Thread.sleep(10_000);
-                } catch (InterruptedException e) {
-                    System.out.println("Background cleanup thread interrupted");
-                    Thread.currentThread().interrupt(); // Preserve interrupt status
-                    break;
+        @Override
+        Pinned pin() {
+            // Counters change in place, so a reply written later (say, inside EXEC) needs a snapshot.
+            return shared ? this : new LongEntry(number, 0, true);
+        }
+
+        @Override
+        int footprint() {
+            return shared ? 0 : align(ENTRY_BASE + 8 + 1);
+        }
+    }
+
+    /**
+     * Values of up to 16 bytes packed little-endian into two words of the entry itself, saving the
+     * separate array and its header. Reads materialize a fresh array.
+     */
+    private static final class EmbeddedEntry extends Entry {
+        static final int CAPACITY = 16;
+
+        private final long low;
+        private final long high;
+        private final byte length;
+
+        EmbeddedEntry(byte[] value, long expireAt) {
+            super(expireAt);
+            long low = 0, high = 0;
+            for (int i = 0; i < value.length; i++) {
+                long b = value[i] & 0xFFL;
+                if (i < 8) {
+                    low |= b << (i * 8);
+                } else {
+                    high |= b << ((i - 8) * 8);
                 }
             }
-        });
+            this.low = low;
+            this.high = high;
+            this.length = (byte) value.length;
+        }
+
+        @Override
+        byte[] bytes() {
+
+            byte[] value = new byte[length];
+            for (int i = 0; i < value.length; i++) {
+                value[i] = (byte) ((i < 8 ? low >>> (i * 8) : high >>> ((i - 8) * 8)));
+            }
+            return value;
+        }
+
+        @Override
+        int footprint() {
+            return align(ENTRY_BASE + 8 + 8 + 1);
+        }
+    }
+
+    private static final class RawEntry extends Entry {
+        final byte[] value;
+
+        RawEntry(byte[] value, long expireAt) {
+            super(expireAt);
+            this.value = value;
+        }
+
+        @Override
+        byte[] bytes() {
+            return value;
+        }
+
+        @Override
+        int footprint() {
+            return align(ENTRY_BASE + REFERENCE) + arrayFootprint(value.length);
+        }
+    }
+
+    private static final byte[] DEL = "DEL".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Off-heap engine only: a value too long to embed, kept in a {@link Slabs} chunk. Readers pin the
+     * chunk with a reference count; the map holds one reference, dropped when the entry is replaced
+     * or removed, and the chunk is freed when the last reader is done with it.
+     */
+    private static final class OffHeapEntry extends Entry {
+        private static final VarHandle REFS;
+
+        static {
+            try {
+                REFS = MethodHandles.lookup().findVarHandle(OffHeapEntry.class, "refs", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final long handle;
+        private final int length;
+        private volatile int refs = 1;
+
+        OffHeapEntry(byte[] value, long expireAt) {
+            super(expireAt);
+            this.handle = Slabs.store(value);
+            this.length = value.length;
+        }
+
+        @Override
+        byte[] bytes() {
+
+            if (!retain()) {
+                return null;
+            }
+            try {
+                return Slabs.read(handle, length);
+            } finally {
+                release();
+            }
+        }
+
+        @Override
+        Pinned pin() {
+            return retain() ? this : null;
+        }
+
+        @Override
+        public void writeBulkTo(RespBuffer out) {
+
+            try {
+                out.writeBulk(Slabs.page(handle), Slabs.offset(handle), length);
+            } finally {
+                release();
+            }
+        }
+
+        @Override
+        int footprint() {
+            return align(ENTRY_BASE + 8 + 4 + 4) + Slabs.chunkSize(length);
+        }
+
+        private boolean retain() {
+
+            int current;
+            do {
+                current = refs;
+                if (current == 0) {
+                    return false;
+                }
+            } while (!REFS.compareAndSet(this, current, current + 1));
+            return true;
+        }
+
+        @Override
+        void release() {
+
+            if ((int) REFS.getAndAdd(this, -1) == 1) {
+                Slabs.free(handle, length);
+            }
+        }
     }
 
-    public static void set(String key, String value) {
-        data.put(key, new ValueWithExpiry(value, null));
+    private static boolean offHeap;
+
+    // 0..9999 without a TTL, the common counter and flag values, as in Redis's shared integers.
+    private static final LongEntry[] SHARED_INTEGERS = new LongEntry[10000];
+
+    // One table per KeyStripes stripe, so batch commands visit each segment once. Writes to a
+    // segment hold its stripe lock, as Dict requires; reads take no lock.
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final Dict<Entry>[] segments = new Dict[KeyStripes.STRIPES];
+    private static final KeyIndex index = new KeyIndex();
+    // Keys currently holding a TTL, for INFO. Counts the entries, not the expiry wheel's timers,
+    // which outlive the TTLs that overwrites and deletes dropped.
+    private static final LongAdder withTtl = new LongAdder();
+
+    static {
+        for (int i = 0; i < SHARED_INTEGERS.length; i++) {
+            SHARED_INTEGERS[i] = new LongEntry(i, 0, true);
+        }
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Dict<>();
+        }
+    }
+
+    public static void configure(Config config) {
+
+        offHeap = config.isOffHeap();
+        if (offHeap) {
+            Log.notice("Values longer than {} bytes are stored off-heap", EmbeddedEntry.CAPACITY);
+        }
     }
 
-    public static void setWithExpiry(String key, String value, long millis) {
-        Instant expiry = Instant.now().plusMillis(millis);
-        data.put(key, new ValueWithExpiry(value, expiry));
+    private static Dict<Entry> segment(Key key) {
+        return segments[KeyStripes.stripeOf(key)];
     }
 
-    public static String get(String key) {
-        ValueWithExpiry entry = data.get(key);
+    public static void set(Key key, byte[] value) {
+        put(key, Entry.of(value, 0));
+    }
+
+    public static void setWithExpiry(Key key, byte[] value, long millis) {
+        setWithExpireAt(key, value, Clock.millis() + millis);
+    }
+
+    public static void setWithExpireAt(Key key, byte[] value, long expireAtMillis) {
+        put(key, Entry.of(value, expireAtMillis));
+        ExpiryWheel.schedule(key, expireAtMillis);
+    }
+
+    // Write commands already hold the stripe lock, so taking it again here only costs a reentry; RDB
+    // loading and other callers outside a command get the lock Dict needs.
+    private static void put(Key key, Entry entry) {
+
+        int stripe = KeyStripes.stripeOf(key);
+        KeyStripes.lock(stripe);
+        try {
+            Entry old = segments[stripe].put(key, entry);
+            KeyStripes.touch(key);
+            countTtl(entry, old);
+            Eviction.add(sizeOf(key, entry));
+            if (old != null) {
+                discard(key, old);
+            } else {
+                index.add(key);
+            }
+        } finally {
+            KeyStripes.unlock(stripe);
+        }
+    }
+
+    // Accounts for an entry that left the map and drops the map's reference to it.
+    private static void discard(Key key, Entry entry) {
+
+        Eviction.add(-sizeOf(key, entry));
+        entry.release();
+    }
+
+    // As discard, for a key that left the map altogether rather than taking a new value.
+    private static void unlink(Key key, Entry entry) {
+
+        discard(key, entry);
+        countTtl(null, entry);
+        index.remove(key);
+    }
+
+    private static void countTtl(Entry added, Entry removed) {
+
+        int delta = (added != null && added.expireAt != 0 ? 1 : 0) - (removed != null && removed.expireAt != 0 ? 1 : 0);
+        if (delta != 0) {
+            withTtl.add(delta);
+        }
+    }
+
+    /**
+     * Number of keys with a TTL that have not been removed yet.
+     */
+    public static long keysWithTtl() {
+        return withTtl.sum();
+    }
+
+    private static long sizeOf(Key key, Entry entry) {
+        return entry == null ? 0 : keyFootprint(key) + entry.footprint();
+    }
+
+    private static void touch(Entry entry) {
+
+        if (Eviction.tracksAccess()) {
+            int access = Eviction.touch(entry.access);
+            // Skip the store when nothing changed, so hot keys read from many cores stay clean in cache.
+            if (access != entry.access) {
+                entry.access = access;
+            }
+        }
+    }
+
+    /**
+     * Removes {@code key} if it still carries the TTL {@code deadlineMillis} and that deadline has
+     * passed. Runs under the key's stripe lock and bumps its version, like any other write.
+     */
+    public static boolean expireIfDue(Key key, long deadlineMillis) {
+
+        int stripe = KeyStripes.stripeOf(key);
+        Dict<Entry> data = segments[stripe];
+        boolean removed = false;
+        KeyStripes.lock(stripe);
+        try {
+            Entry entry = data.get(key);
+            removed = entry != null && entry.expireAt == deadlineMillis && entry.isExpired()
+                    && data.remove(key, entry);
+            if (removed) {
+                unlink(key, entry);
+                KeyStripes.touch(key);
+            }
+        } finally {
+            KeyStripes.unlock(stripe);
+        }
+        return removed;
+    }
+
+    /**
+     * Atomically adds {@code delta} to the integer at {@code key} (0 if absent) and returns the result.
+     * An integer-encoded value is updated in place under the stripe lock; the TTL is kept.
+     *
+     * @throws NumberFormatException if the stored value is not an integer
+     * @throws ArithmeticException   if the result would overflow a 64-bit signed integer
+     */
+    public static long incrementBy(Key key, long delta) {
+
+        // The entry may be bumped again right after compute returns, so capture this call's result
+        // (and the size change) inside it.
+        long[] result = new long[2];
+        int stripe = KeyStripes.stripeOf(key);
+        KeyStripes.lock(stripe);
+        try {
+            segments[stripe].compute(key, (k, old) -> {
+                Entry updated;
+                if (old == null || old.isExpired()) {
+                    updated = Entry.ofLong(result[0] = delta, 0);
+                } else if (!(old instanceof LongEntry counter)) {
+                    throw new NumberFormatException("value is not an integer");
+                } else {
+                    long next = result[0] = Math.addExact(counter.number, delta);
+                    if (counter.shared) {
+                        updated = Entry.ofLong(next, counter.expireAt);
+                    } else {
+                        counter.number = next;
+                        touch(counter);
+                        return counter;
+                    }
+                }
+                result[1] = sizeOf(k, updated) - sizeOf(k, old);
+                countTtl(updated, old);
+                if (old != null) {
+                    old.release();
+                } else {
+                    index.add(k);
+                }
+                return updated;
+            });
+            KeyStripes.touch(key);
+        } finally {
+            KeyStripes.unlock(stripe);
+        }
+        Eviction.add(result[1]);
+        return result[0];
+    }
+
+    /**
+     * Atomically adds {@code delta} to the number at {@code key} (0 if absent) and stores the result
+     * as a string, as INCRBYFLOAT does.
+     *
+     * @throws NumberFormatException if the stored value is not a number
+     * @throws ArithmeticException   if the result is NaN or infinite
+     */
+    public static byte[] incrementByFloat(Key key, double delta) {
+
+        long[] sizeDelta = new long[1];
+        byte[][] stored = new byte[1][];
+        int stripe = KeyStripes.stripeOf(key);
+        KeyStripes.lock(stripe);
+        try {
+            // The reply is captured here: once unlocked, the new entry may itself be replaced and freed.
+            segments[stripe].compute(key, (k, old) -> {
+                boolean live = old != null && !old.isExpired();
+                double current = 0;
+                if (live && old instanceof LongEntry counter) {
+                    current = counter.number;
+                } else if (live) {
+                    byte[] text = old.bytes();
+                    if (text == null) {
+                        // The map's own reference keeps the entry alive while the stripe is locked.
+                        throw new IllegalStateException("value of a locked key was freed");
+                    }
+                    current = parseDouble(text);
+                }
+                double result = current + delta;
+                if (Double.isNaN(result) || Double.isInfinite(result)) {
+                    throw new ArithmeticException("increment would produce NaN or Infinity");
+                }
+                stored[0] = formatDouble(result);
+                Entry updated = Entry.of(stored[0], live ? old.expireAt : 0);
+                sizeDelta[0] = sizeOf(k, updated) - sizeOf(k, old);
+                countTtl(updated, old);
+                if (old != null) {
+                    old.release();
+                } else {
+                    index.add(k);
+                }
+                return updated;
+            });
+            KeyStripes.touch(key);
+        } finally {
+            KeyStripes.unlock(stripe);
+        }
+        Eviction.add(sizeDelta[0]);
+        return stored[0];
+    }
+
+    public static byte[] get(Key key) {
+        return liveValue(segment(key), key);
+    }
+
+    /**
+     * The live value at {@code key} for a GET reply, or null. See {@link Pinned}.
+     */
+    public static Pinned pin(Key key) {
+
+        Dict<Entry> data = segment(key);
+        while (true) {
+            Entry entry = liveEntry(data, key);
+            Pinned pinned = entry == null ? null : entry.pin();
+            if (entry == null || pinned != null) {
+                return pinned;
+            }
+        }
+    }
+
+    private static byte[] liveValue(Dict<Entry> data, Key key) {
+
+        while (true) {
+            Entry entry = liveEntry(data, key);
+            byte[] value = entry == null ? null : entry.bytes();
+            if (entry == null || value != null) {
+                return value;
+            }
+        }
+    }
+
+    // An expired entry is removed on the way if its stripe lock is free; otherwise the holder, the
+    // expiry wheel or a later read gets to it.
+    private static Entry liveEntry(Dict<Entry> data, Key key) {
+
+        Entry entry = data.get(key);
         if (entry == null) {
             return null;
         }
         if (entry.isExpired()) {
-            data.remove(key);
+            int stripe = KeyStripes.stripeOf(key);
+            if (KeyStripes.tryLock(stripe)) {
+                try {
+                    if (data.remove(key, entry)) {
+                        unlink(key, entry);
+                        KeyStripes.touch(key);
+                        ExpiryWheel.countExpired();
+                    }
+                } finally {
+                    KeyStripes.unlock(stripe);
+                }
+            }
             return null;
         }
+        touch(entry);
+        return entry;
+    }
+
+    /**
+     * Estimated bytes held by {@code key} and its value, or -1 if it does not exist.
+     */
+    public static long memoryUsage(Key key) {
 
-        return entry.value;
+        Entry entry = segment(key).get(key);
+        if (entry == null || entry.isExpired()) {
+            return -1;
+        }
+        return keyFootprint(key) + entry.footprint();
+    }
+
+    static int keyFootprint(Key key) {
+        return DICT_SLOT + KEY_OBJECT + arrayFootprint(key.bytes().length) + KeyIndex.footprint();
     }
 
-    public static List<String> keys() {
-        return new ArrayList<>(data.keySet());
+    static int arrayFootprint(int length) {
+        return align(ARRAY_HEADER + length);
+    }
+
+    static int align(int size) {
+        return (size + 7) & ~7;
+    }
+
+    /**
+     * Values for {@code keys} in request order (null where missing), reading each segment once.
+     */
+    public static byte[][] getAll(Key[] keys) {
+
+        byte[][] values = new byte[keys.length][];
+        Dict<Entry> data = null;
+        int current = -1;
+        for (int i : KeyStripes.orderByStripe(keys)) {
+            int stripe = KeyStripes.stripeOf(keys[i]);
+            if (stripe != current) {
+                current = stripe;
+                data = segments[stripe];
+            }
+            values[i] = liveValue(data, keys[i]);
+        }
+        return values;
+    }
+
+    /**
+     * Stores {@code values[i]} under {@code keys[i]}, visiting each segment once. When a key repeats,
+     * the last value wins, as with MSET.
+     */
+    public static void setAll(Key[] keys, byte[][] values) {
+
+        for (int i : KeyStripes.orderByStripe(keys)) {
+            put(keys[i], Entry.of(values[i], 0));
+        }
+    }
+
+    public static boolean exists(Key key) {
+        return liveValue(segment(key), key) != null;
+    }
+
+    public static boolean remove(Key key) {
+
+        int stripe = KeyStripes.stripeOf(key);
+        KeyStripes.lock(stripe);
+        try {
+            Entry removed = segments[stripe].remove(key);
+            if (removed == null) {
+                return false;
+            }
+            unlink(key, removed);
+            KeyStripes.touch(key);
+            if (removed.isExpired()) {
+                ExpiryWheel.countExpired();
+                return false;
+            }
+            return true;
+        } finally {
+            KeyStripes.unlock(stripe);
+        }
+    }
+
+    /**
+     * Hands up to {@code count} keys to {@code sampler}, one from each of several random segments at
+     * a random slot, skipping keys without a TTL if {@code volatileOnly}.
+     */
+    static void sample(int count, boolean volatileOnly, Eviction.Sampler sampler) {
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int[] found = new int[1];
+        for (int tries = 0; found[0] < count && tries < count * 16; tries++) {
+            Dict<Entry> data = segments[random.nextInt(segments.length)];
+            if (data.size() == 0) {
+                continue;
+            }
+            data.sample(1, (key, entry) -> {
+                if (!volatileOnly || entry.expireAt != 0) {
+                    sampler.accept(key, entry.access, entry.expireAt);
+                    found[0]++;
+                }
+            });
+        }
+    }
+
+    /**
+     * Deletes {@code key} for {@link Eviction} and replicates the DEL. Gives up rather than waiting
+     * if the key's stripe is locked, since the caller may already hold other stripes.
+     */
+    static boolean evict(Key key, boolean volatileOnly) {
+
+        int stripe = KeyStripes.stripeOf(key);
+        if (!KeyStripes.tryLock(stripe)) {
+            return false;
+        }
+        Dict<Entry> data = segments[stripe];
+        boolean removed = false;
+        try {
+            Entry entry = data.get(key);
+            removed = entry != null && (!volatileOnly || entry.expireAt != 0) && data.remove(key, entry);
+            if (removed) {
+                unlink(key, entry);
+                KeyStripes.touch(key);
+                ReplicationManager.propagateToReplicas(new byte[][]{DEL, key.bytes()});
+            }
+        } finally {
+            KeyStripes.unlock(stripe);
+        }
+        return removed;
+    }
+
+    /**
+     * One SCAN step over {@code stripe}: hands the live string keys of one bucket to {@code visitor}
+     * and returns the next bucket cursor, 0 once the stripe is done. See {@link Dict#scan}.
+     */
+    public static long scan(int stripe, long cursor, Consumer<Key> visitor) {
+
+        return segments[stripe].scan(cursor, (key, entry) -> {
+            if (!entry.isExpired()) {
+                visitor.accept(key);
+            }
+        });
+    }
+
+    /**
+     * Hands every live string key starting with {@code prefix} to {@code visitor}, for KEYS. Uses the
+     * {@link KeyIndex} when it is enabled and the prefix narrows the search; otherwise walks every segment.
+     */
+    public static void keys(byte[] prefix, Consumer<Key> visitor) {
+
+        if (KeyIndex.enabled() && prefix.length > 0) {
+            index.forEachWithPrefix(prefix, key -> {
+                Entry entry = segment(key).get(key);
+                if (entry != null && !entry.isExpired()) {
+                    visitor.accept(key);
+                }
+            });
+            return;
+        }
+        for (Dict<Entry> data : segments) {
+            data.forEach((key, entry) -> {
+                if (!entry.isExpired() && KeyIndex.startsWith(key.bytes(), prefix)) {
+                    visitor.accept(key);
+                }
+            });
+        }
+    }
+
+    static double parseDouble(byte[] value) {
+
+        // BigDecimal rejects the hex, "Infinity" and suffixed forms Double.parseDouble would accept.
+        if (value.length == 0 || value.length > 5120) {
+            throw new NumberFormatException("value is not a valid float");
+        }
+        return new BigDecimal(new String(value, StandardCharsets.US_ASCII)).doubleValue();
+    }
+
+    private static byte[] formatDouble(double value) {
+        return new BigDecimal(value).round(MathContext.DECIMAL64).stripTrailingZeros().toPlainString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // Only values whose decimal form round-trips byte for byte are integer-encoded.
+    private static boolean isCanonicalLong(byte[] value) {
+
+        if (value.length == 0 || value.length > 20) {
+            return false;
+        }
+        int start = value[0] == '-' ? 1 : 0;
+        if (start == value.length || (value[start] == '0' && (value.length > 1))) {
+            return false;
+        }
+        for (int i = start; i < value.length; i++) {
+            if (value[i] < '0' || value[i] > '9') {
+                return false;
+            }
+        }
+        try {
+            Helper.parseLong(value);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
     }
 
     public static byte[] dumpRDB() {
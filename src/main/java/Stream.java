@@ -1,14 +1,66 @@
 import java.util.*;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Stream entries in macro-nodes of up to {@link Node#CAPACITY} entries, as Redis does with its rax of
+ * listpacks. Nodes are indexed by their first ID in a skip list, so a range or XREAD seek is a
+ * floor lookup plus a binary search inside one node, and appending never copies more than the
+ * tail node's arrays. Each node stores its IDs as deltas from its first ID in one {@code long[]}
+ * and the field/value pairs length-prefixed in one {@code byte[]}; entries are decoded on read.
+ * <p>
+ * Writers are serialized by the key's stripe lock. Readers take no lock: a node's entry count is
+ * published last, and an entry below it never changes, so a reader sees a consistent prefix and
+ * gets back its own copy. Trimming drops whole nodes from the head, or for an exact trim also
+ * moves the head node's start past the trimmed entries; a reader already inside a dropped node
+ * finishes reading it undisturbed.
+ * <p>
+ * The stream also owns its {@link ConsumerGroup}s, which are dropped along with it.
+ */
 public class Stream {
 
-    private final List<StreamEntry> entries = Collections.synchronizedList(new ArrayList<>());
+    /**
+     * A MAXLEN ({@code minId == null}) or MINID trim. An approximate ({@code ~}) trim only drops
+     * whole nodes, so it may keep some entries an exact one would remove.
+     */
+    public record Trim(long maxLen, StreamId minId, boolean approximate) {}
+
+    // Stream object and its skip list with the head index.
+    static final int BASE_FOOTPRINT = 40 + 48 + 40;
+
+    private final ConcurrentSkipListMap<StreamId, Node> nodes = new ConcurrentSkipListMap<>();
+    private final Map<Key, ConsumerGroup> groups = new ConcurrentHashMap<>();
+
+    // Writer-only: the node appends go to.
+    private Node tail;
+    private volatile StreamId lastId;
+    private volatile int size;
+
+    // Maintained by add() and clear(); writers to one stream are serialized by its stripe lock.
+    private volatile long footprint = BASE_FOOTPRINT;
 
-    public StreamId add(StreamId id, Map<String, String> values) throws InvalidStreamIdArgumentException {
+    public StreamId add(StreamId id, byte[][] values) throws InvalidStreamIdArgumentException {
 
         StreamId processedId = processAndValidateId(id);
 
-        entries.add(new StreamEntry(processedId, values));
+        Node node = tail;
+        long before = node == null ? 0 : node.footprint();
+        if (node == null || !node.append(processedId, values)) {
+            if (node != null) {
+                node.seal();
+            }
+            long sealed = node == null ? 0 : node.footprint();
+            node = new Node(processedId);
+            node.append(processedId, values);
+            // Published only once it holds its first entry.
+            nodes.put(processedId, node);
+            tail = node;
+            footprint += sealed - before;
+            before = 0;
+        }
+        footprint += node.footprint() - before;
+        lastId = processedId;
+        size++;
 
         return processedId;
     }
@@ -26,17 +78,16 @@ public class Stream {
 
     private StreamId replaceSequencePart(StreamId id) {
 
-        Optional<StreamEntry> lastEntryOptional = getLast();
+        StreamId lastEntryId = lastId;
 
         if (id.timestamp() == 0) {
             return StreamId.of(id.timestamp(), 1L);
         }
 
-        if (lastEntryOptional.isEmpty()) {
+        if (lastEntryId == null) {
             return StreamId.of(id.timestamp(), 0L);
         }
 
-        StreamId lastEntryId = lastEntryOptional.get().id();
         if (id.hasSameTimestamp(lastEntryId)) {
             return StreamId.of(id.timestamp(), lastEntryId.sequence() + 1);
         }
@@ -46,68 +97,318 @@ public class Stream {
 
     private void validateId(StreamId id) throws InvalidStreamIdArgumentException {
 
-        Optional<StreamEntry> lastEntryOptional = getLast();
+        StreamId lastEntryId = lastId;
 
         if (id.timestamp() == 0 && id.sequence() == 0) {
             throw new InvalidStreamIdArgumentException("ERR The ID specified in XADD must be greater than 0-0");
         }
 
-        if (lastEntryOptional.isEmpty()) {
+        if (lastEntryId == null) {
             return;
         }
 
-        StreamId lastEntryId = lastEntryOptional.get().id();
         if (!id.isGreaterThan(lastEntryId)) {
             throw new InvalidStreamIdArgumentException("ERR The ID specified in XADD is equal or smaller than the target stream top item");
         }
     }
 
-    public Optional<StreamEntry> getLast() {
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Estimated heap bytes held by this stream, its entries and its groups, for MEMORY USAGE and maxmemory.
+     */
+    public long footprint() {
 
-        if (entries.isEmpty()) {
-            return Optional.empty();
+        long total = footprint;
+        for (ConsumerGroup group : groups.values()) {
+            total += group.footprint();
         }
+        return total;
+    }
+
+    public ConsumerGroup group(Key name) {
+        return groups.get(name);
+    }
+
+    /**
+     * Adds a group that has been delivered everything up to {@code lastDelivered}; false if the
+     * name is taken.
+     */
+    public boolean createGroup(Key name, StreamId lastDelivered) {
+        return groups.putIfAbsent(name, new ConsumerGroup(name, lastDelivered)) == null;
+    }
 
-        return Optional.ofNullable(entries.getLast());
+    public boolean removeGroup(Key name) {
+        return groups.remove(name) != null;
     }
 
-    public List<StreamEntry> getEntries() {
-        return Collections.unmodifiableList(entries);
+    public StreamId lastId() {
+        return lastId;
     }
 
+    /**
+     * Removes entries from the head of the stream as {@code trim} asks and returns how many. The
+     * last ID is kept, so new entries must still be greater than any trimmed one.
+     */
+    public long trim(Trim trim) {
+
+        StreamId minId = trim.minId();
+        long minSeq = minId == null || minId.shouldReplaceSequence() ? 0 : minId.sequence();
+        long removed = 0;
+        while (true) {
+            Map.Entry<StreamId, Node> head = nodes.firstEntry();
+            if (head == null) {
+                return removed;
+            }
+            Node node = head.getValue();
+            int first = node.first;
+            int count = node.count;
+            int live = count - first;
+            int drop;
+            if (minId == null) {
+                drop = (int) Math.min(live, Math.max(size - trim.maxLen(), 0));
+            } else {
+                drop = node.search(minId.timestamp(), minSeq, true, first, count) - first;
+            }
+            if (drop == 0) {
+                return removed;
+            }
+
+            if (drop < live) {
+                if (!trim.approximate()) {
+                    node.first = first + drop;
+                    size -= drop;
+                    removed += drop;
+                }
+                return removed;
+            }
+            nodes.remove(head.getKey());
+            if (node == tail) {
+                tail = null;
+            }
+            footprint -= node.footprint();
+            size -= live;
+            removed += live;
+        }
+    }
+
+    /**
+     * Entries with IDs from {@code from} to {@code to}, both inclusive. An ID without a sequence
+     * number covers its whole millisecond at either end.
+     */
     public List<StreamEntry> getEntries(StreamId from, StreamId to) {
 
-        int left = 0, right = entries.size() - 1;
-        while (left <= right && !entries.get(left).id().isGreaterOrEqualThan(from)) {
-            ++left;
+        long toSequence = to.shouldReplaceSequence() ? Long.MAX_VALUE : to.sequence();
+        return collect(from.timestamp(), from.shouldReplaceSequence() ? 0 : from.sequence(), true,
+                to.timestamp(), toSequence, Integer.MAX_VALUE);
+    }
+
+    /**
+     * The entry with exactly this ID, or null if there is none (never added or trimmed).
+     */
+    public StreamEntry entry(StreamId id) {
+
+        List<StreamEntry> found = collect(id.timestamp(), id.sequence(), true, id.timestamp(), id.sequence(), 1);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    /**
+     * Entries with IDs after {@code streamIdFrom}; without a sequence number, after its millisecond.
+     */
+    public List<StreamEntry> readFromExclusive(StreamId streamIdFrom) {
+        return readFromExclusive(streamIdFrom, Integer.MAX_VALUE);
+    }
+
+    /**
+     * At most {@code limit} entries with IDs after {@code streamIdFrom}.
+     */
+    public List<StreamEntry> readFromExclusive(StreamId streamIdFrom, int limit) {
+
+        long fromSequence = streamIdFrom.shouldReplaceSequence() ? Long.MAX_VALUE : streamIdFrom.sequence();
+        return collect(streamIdFrom.timestamp(), fromSequence, false, Long.MAX_VALUE, Long.MAX_VALUE, limit);
+    }
+
+    private List<StreamEntry> collect(long fromMs, long fromSeq, boolean inclusive, long toMs, long toSeq, int limit) {
+
+        List<StreamEntry> result = new ArrayList<>();
+        // The node holding the first match starts at or before it.
+        StreamId seek = StreamId.of(fromMs, fromSeq);
+        StreamId start = nodes.floorKey(seek);
+        Collection<Node> walk = start == null ? nodes.values() : nodes.tailMap(start, true).values();
+
+        boolean firstNode = true;
+        for (Node node : walk) {
+            int live = node.first;
+            int count = node.count;
+            int i = firstNode ? node.search(fromMs, fromSeq, inclusive, live, count) : live;
+            firstNode = false;
+            for (; i < count; i++) {
+                if (result.size() == limit || compare(node.timestamp(i), node.sequence(i), toMs, toSeq) > 0) {
+                    return result;
+                }
+                result.add(node.entry(i));
+            }
         }
+        return result;
+    }
+
+    private static int compare(long ms1, long seq1, long ms2, long seq2) {
 
-        while (left <= right && entries.get(right).id().isGreaterThan(to)) {
-            --right;
+        int cmp = Long.compare(ms1, ms2);
+        return cmp != 0 ? cmp : Long.compare(seq1, seq2);
+    }
+
+    /**
+     * Up to {@link #CAPACITY} consecutive entries. Entry {@code i}'s ID is the node's first ID plus
+     * the millisecond delta in the high half of {@code ids[i]} and the sequence delta in the low
+     * half; its fields are {@code payload[offsets[i]..offsets[i + 1])}, a count followed by
+     * length-prefixed values, all as varints. Arrays start small and double as the node fills.
+     */
+    private static final class Node {
+
+        static final int CAPACITY = 128;
+        private static final int INITIAL_CAPACITY = 4;
+        // Node object, its skip list node and key, and three array headers.
+        private static final int OVERHEAD = 48 + 32 + 24 + 3 * 16;
+
+        final long firstMs;
+        final long firstSeq;
+        // Volatile so a reader that sees a regrown array also sees what was copied into it.
+        volatile long[] ids = new long[INITIAL_CAPACITY];
+        volatile int[] offsets = new int[INITIAL_CAPACITY + 1];
+        volatile byte[] payload = new byte[64];
+        // Published after the entry's data, so readers only look below it.
+        volatile int count;
+        // Entries below this were trimmed.
+        volatile int first;
+
+        Node(StreamId first) {
+            this.firstMs = first.timestamp();
+            this.firstSeq = first.sequence();
         }
 
-        if (left > right) {
-            return Collections.emptyList();
+        /**
+         * Appends the entry, or returns false if it belongs in a new node: this one is full or the
+         * ID is too far from the first one for 32-bit deltas.
+         */
+        boolean append(StreamId id, byte[][] values) {
+
+            int n = count;
+            long msDelta = id.timestamp() - firstMs;
+            long seqDelta = id.sequence() - firstSeq;
+            if (n == CAPACITY || msDelta > Integer.MAX_VALUE || seqDelta != (int) seqDelta) {
+                return false;
+            }
+            if (n == ids.length) {
+                ids = Arrays.copyOf(ids, n * 2);
+                offsets = Arrays.copyOf(offsets, n * 2 + 1);
+            }
+
+            int length = varintSize(values.length);
+            for (byte[] value : values) {
+                length += varintSize(value.length) + value.length;
+            }
+            int at = offsets[n];
+            if (at + length > payload.length) {
+                payload = Arrays.copyOf(payload, Math.max(payload.length * 2, at + length));
+            }
+            at = writeVarint(payload, at, values.length);
+            for (byte[] value : values) {
+                at = writeVarint(payload, at, value.length);
+                System.arraycopy(value, 0, payload, at, value.length);
+                at += value.length;
+            }
+
+            ids[n] = msDelta << 32 | (seqDelta & 0xFFFFFFFFL);
+            offsets[n + 1] = at;
+            count = n + 1;
+            return true;
         }
 
-        return Collections.unmodifiableList(entries.subList(left, right + 1));
-    }
+        // Drops unused capacity once no more entries will be appended.
+        void seal() {
 
-    public List<StreamEntry> readFromExclusive(StreamId streamIdFrom) {
+            int n = count;
+            ids = Arrays.copyOf(ids, n);
+            offsets = Arrays.copyOf(offsets, n + 1);
+            payload = Arrays.copyOf(payload, offsets[n]);
+        }
+
+        long timestamp(int i) {
+            return firstMs + (ids[i] >>> 32);
+        }
+
+        long sequence(int i) {
+            return firstSeq + (int) ids[i];
+        }
 
-        int i = 0;
-        while (i < entries.size()) {
-            StreamEntry entry = entries.get(i);
-            if (entry.id().isGreaterThan(streamIdFrom)) {
-                break;
+        /**
+         * Index of the first entry in {@code [low, count)} at or after (ms, seq), or strictly after
+         * it if not {@code inclusive}; {@code count} if there is none.
+         */
+        int search(long ms, long seq, boolean inclusive, int low, int count) {
+
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(timestamp(mid), sequence(mid), ms, seq);
+                if (cmp < 0 || (cmp == 0 && !inclusive)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
             }
-            ++i;
+            return low;
         }
 
-        if (i == entries.size()) {
-            return Collections.emptyList();
+        StreamEntry entry(int i) {
+
+            byte[] data = payload;
+            int[] at = {offsets[i]};
+            byte[][] values = new byte[readVarint(data, at)][];
+            for (int v = 0; v < values.length; v++) {
+                int length = readVarint(data, at);
+                values[v] = Arrays.copyOfRange(data, at[0], at[0] + length);
+                at[0] += length;
+            }
+            return new StreamEntry(StreamId.of(timestamp(i), sequence(i)), values);
         }
 
-        return Collections.unmodifiableList(entries.subList(i, entries.size()));
+        long footprint() {
+            return OVERHEAD + 8L * ids.length + 4L * offsets.length + payload.length;
+        }
+    }
+
+    private static int varintSize(int value) {
+
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    private static int writeVarint(byte[] out, int at, int value) {
+
+        while ((value & ~0x7F) != 0) {
+            out[at++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[at++] = (byte) value;
+        return at;
+    }
+
+    private static int readVarint(byte[] in, int[] at) {
+
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in[at[0]++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
     }
 }
@@ -1,3 +1,5 @@
-import java.util.Map;
-
-public record StreamEntry(StreamId id, Map<String, String> values) {}
\ No newline at end of file
+/**
+ * One stream entry. {@code values} holds the field/value pairs flattened in insertion order:
+ * {@code [field1, value1, field2, value2, ...]}.
+ */
+public record StreamEntry(StreamId id, byte[][] values) {}
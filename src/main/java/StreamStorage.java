@@ -1,34 +1,162 @@
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class StreamStorage {
 
-    private static final Map<String, Stream> streams = new ConcurrentHashMap<>();
+    // Split by KeyStripes stripe, like Storage, so SCAN can walk both keyspaces stripe by stripe.
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final Map<Key, Stream>[] segments = new Map[KeyStripes.STRIPES];
+    private static final KeyIndex index = new KeyIndex();
 
-    public static boolean contains(String streamName) {
-        return streams.containsKey(streamName);
+    static {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new ConcurrentHashMap<>();
+        }
     }
 
-    public static String add(String streamName, String id, String... values) throws InvalidStreamIdArgumentException {
+    private static Map<Key, Stream> segment(Key key) {
+        return segments[KeyStripes.stripeOf(key)];
+    }
 
-        Stream stream = streams.computeIfAbsent(streamName, s -> new Stream());;
+    /**
+     * Hands every stream key in {@code stripe} to {@code visitor}.
+     */
+    public static void scan(int stripe, Consumer<Key> visitor) {
+        segments[stripe].keySet().forEach(visitor);
+    }
 
-        StreamId streamId = StreamId.fromString(id);
+    /**
+     * Hands every stream key starting with {@code prefix} to {@code visitor}, for KEYS.
+     */
+    public static void keys(byte[] prefix, Consumer<Key> visitor) {
+
+        if (KeyIndex.enabled() && prefix.length > 0) {
+            index.forEachWithPrefix(prefix, visitor);
+            return;
+        }
+        for (Map<Key, Stream> data : segments) {
+            for (Key key : data.keySet()) {
+                if (KeyIndex.startsWith(key.bytes(), prefix)) {
+                    visitor.accept(key);
+                }
+            }
+        }
+    }
+
+    public static boolean contains(Key streamName) {
+        return segment(streamName).containsKey(streamName);
+    }
+
+    public static Stream remove(Key streamName) {
+
+        Stream removed = segment(streamName).remove(streamName);
+        if (removed != null) {
+            index.remove(streamName);
+            KeyStripes.touch(streamName);
+            Eviction.add(-(Storage.keyFootprint(streamName) + removed.footprint()));
+        }
+        return removed;
+    }
+
+    /**
+     * Estimated bytes held by the stream at {@code streamName}, or -1 if there is none.
+     */
+    public static long memoryUsage(Key streamName) {
+
+        Stream stream = segment(streamName).get(streamName);
+        return stream == null ? -1 : Storage.keyFootprint(streamName) + stream.footprint();
+    }
+
+    /**
+     * Appends an entry and then, if {@code trim} is not null, trims the stream, as XADD does.
+     */
+    public static String add(Key streamName, String id, byte[][] values, Stream.Trim trim) throws InvalidStreamIdArgumentException {
+
+        Stream stream = create(streamName);
 
-        StreamId processedId = stream.add(streamId, Helper.parseFieldValuePairs(values));
+        StreamId streamId = StreamId.fromString(id);
 
-        synchronized (StreamLocks.getLock(streamName)) {
-            StreamLocks.getLock(streamName).notifyAll();
+        long before = stream.footprint();
+        StreamId processedId = stream.add(streamId, values);
+        if (trim != null) {
+            stream.trim(trim);
         }
+        Eviction.add(stream.footprint() - before);
+        KeyStripes.touch(streamName);
+
+        BlockedReaders.signal(streamName, processedId);
 
         return processedId.toString();
     }
 
-    public static List<StreamEntry> fetch(String streamName, String from, String to) {
+    /**
+     * Trims the stream at {@code streamName} and returns the number of entries removed.
+     */
+    public static long trim(Key streamName, Stream.Trim trim) {
+
+        Stream stream = segment(streamName).get(streamName);
+        if (stream == null) {
+            return 0;
+        }
+        long before = stream.footprint();
+        long removed = stream.trim(trim);
+        Eviction.add(stream.footprint() - before);
+        if (removed > 0) {
+            KeyStripes.touch(streamName);
+        }
+        return removed;
+    }
+
+    /**
+     * Runs {@code change} on the stream at {@code streamName} and accounts for the memory it adds or
+     * frees. With {@code create}, a missing stream is created empty first, as XGROUP CREATE MKSTREAM
+     * does; otherwise a missing stream gives null without calling {@code change}. A null or false
+     * result means nothing changed; anything else counts as a change for WATCH. Callers hold the key's
+     * stripe lock.
+     */
+    public static <T> T update(Key streamName, boolean create, Function<Stream, T> change) {
+
+        Stream stream = create ? create(streamName) : segment(streamName).get(streamName);
+        if (stream == null) {
+            return null;
+        }
+        long before = stream.footprint();
+        T result = change.apply(stream);
+        Eviction.add(stream.footprint() - before);
+        if (result != null && !Boolean.FALSE.equals(result)) {
+            KeyStripes.touch(streamName);
+        }
+        return result;
+    }
 
-        Stream stream = streams.computeIfAbsent(streamName, s -> new Stream());;
+    /**
+     * The consumer group {@code groupName} of the stream at {@code streamName}, or null if either is
+     * missing.
+     */
+    public static ConsumerGroup group(Key streamName, Key groupName) {
+
+        Stream stream = segment(streamName).get(streamName);
+        return stream == null ? null : stream.group(groupName);
+    }
+
+    private static Stream create(Key streamName) {
+
+        return segment(streamName).computeIfAbsent(streamName, s -> {
+            Eviction.add(Storage.keyFootprint(s) + Stream.BASE_FOOTPRINT);
+            index.add(s);
+            return new Stream();
+        });
+    }
+
+    public static List<StreamEntry> fetch(Key streamName, String from, String to) {
+
+        Stream stream = segment(streamName).get(streamName);
+        if (stream == null) {
+            return List.of();
+        }
 
         StreamId streamIdFrom = StreamId.fromString(from);
         StreamId streamIdTo = StreamId.fromString(to);
@@ -36,17 +164,23 @@ public class StreamStorage {
         return stream.getEntries(streamIdFrom, streamIdTo);
     }
 
-    public static List<StreamEntry> read(String streamName, String from) {
+    public static List<StreamEntry> read(Key streamName, String from) {
 
-        Stream stream = streams.computeIfAbsent(streamName, s -> new Stream());;
+        Stream stream = segment(streamName).get(streamName);
+        if (stream == null) {
+            return List.of();
+        }
         StreamId streamIdFrom = StreamId.fromString(from);
 
         return stream.readFromExclusive(streamIdFrom);
     }
 
-    public static Optional<StreamEntry> getLast(String streamName) {
+    /**
+     * ID of the newest entry in the stream, or null if there is none.
+     */
+    public static StreamId lastId(Key streamName) {
 
-        Stream stream = streams.computeIfAbsent(streamName, s -> new Stream());
-        return stream.getLast();
+        Stream stream = segment(streamName).get(streamName);
+        return stream == null ? null : stream.lastId();
     }
 }
@@ -0,0 +1,118 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.ref.Reference;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compares {@link Dict} with the {@link ConcurrentHashMap} it replaced as the keyspace table: bulk
+ * insert time, the slowest single insert (where a full resize shows up), lookup time and the heap
+ * held by the table itself. Kept with the test sources so it is not packaged with the server; run it
+ * by hand after {@code mvn test-compile}, e.g. with
+ * {@code java -Xmx4g -cp target/classes:target/test-classes DictBenchmark 10000000}.
+ */
+public class DictBenchmark {
+
+    private static final Object VALUE = new Object();
+
+    public static void main(String[] args) {
+
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        Key[] keys = new Key[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = new Key(("key:" + i).getBytes(StandardCharsets.US_ASCII));
+        }
+        // Shuffled, since sequential names have near-sequential hashes that flatter a table indexed
+        // by the raw hash with a cache locality real traffic does not have.
+        Random random = new Random(42);
+        for (int i = count - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            Key swap = keys[i];
+            keys[i] = keys[j];
+            keys[j] = swap;
+        }
+        // Lookups use equal but distinct keys, as the server does with keys parsed from requests.
+        Key[] probes = new Key[count];
+        for (int i = 0; i < count; i++) {
+            probes[i] = new Key(keys[i].bytes().clone());
+        }
+        System.out.printf("%,d keys%n", count);
+
+        // Run twice so the second round is measured with warm code.
+        for (int round = 1; round <= 2; round++) {
+            runDict(keys, probes, round == 2);
+            runMap(keys, probes, round == 2);
+        }
+    }
+
+    private static void runDict(Key[] keys, Key[] probes, boolean report) {
+
+        long heapBefore = usedHeap();
+        Dict<Object> dict = new Dict<>();
+        long worst = 0;
+        long start = System.nanoTime();
+        for (Key key : keys) {
+            long t = System.nanoTime();
+            dict.put(key, VALUE);
+            worst = Math.max(worst, System.nanoTime() - t);
+        }
+        long insert = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int found = 0;
+        for (Key key : probes) {
+            found += dict.get(key) != null ? 1 : 0;
+        }
+        long lookup = System.nanoTime() - start;
+        long heap = usedHeap() - heapBefore;
+        Reference.reachabilityFence(dict);
+        if (report) {
+            print("Dict", keys.length, insert, worst, lookup, found, heap);
+        }
+    }
+
+    private static void runMap(Key[] keys, Key[] probes, boolean report) {
+
+        long heapBefore = usedHeap();
+        Map<Key, Object> map = new ConcurrentHashMap<>();
+        long worst = 0;
+        long start = System.nanoTime();
+        for (Key key : keys) {
+            long t = System.nanoTime();
+            map.put(key, VALUE);
+            worst = Math.max(worst, System.nanoTime() - t);
+        }
+        long insert = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int found = 0;
+        for (Key key : probes) {
+            found += map.get(key) != null ? 1 : 0;
+        }
+        long lookup = System.nanoTime() - start;
+        long heap = usedHeap() - heapBefore;
+        Reference.reachabilityFence(map);
+        if (report) {
+            print("ConcurrentHashMap", keys.length, insert, worst, lookup, found, heap);
+        }
+    }
+
+    private static void print(String name, int count, long insert, long worst, long lookup, int found, long heap) {
+
+        System.out.printf("%-18s insert %6d ms (%5.1f ns/op, worst %,d us)  get %6d ms (%5.1f ns/op, %,d hits)  table %,d MB (%.1f B/key)%n",
+                name, insert / 1_000_000, (double) insert / count, worst / 1_000,
+                lookup / 1_000_000, (double) lookup / count, found,
+                heap >> 20, (double) heap / count);
+    }
+
+    private static long usedHeap() {
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}